@@ -0,0 +1,287 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+
+public class VisitCountWalker
+{
+    // Number of ways out the visit count cache holds, a power of two, and the number of slots each can go in.
+    private static final int CACHE_SIZE = 4096;
+    private static final int WAYS = 4;
+
+    // Highest count a way out can reach.
+    private static final int MAX_COUNT = 255;
+
+    // Set associative cache of visit counts. Each slot holds one way out of a junction, its coordinates and
+    // heading packed into an int, and how many times the robot has gone through it either way.
+    // A way not in the cache counts as never used.
+    private int[] cache_exits = new int[CACHE_SIZE];
+    private byte[] cache_counts = new byte[CACHE_SIZE];
+
+    // Steps taken this run.
+    private int step_counter = 0;
+
+    /**
+     * Check the location of the target vertically relative to the robot.
+     * @param IRobot - robot object
+     * @return int - 1 if north, -1 if south, 0 if neither
+     */
+    private byte isTargetNorth(IRobot robot) {
+        int robot_y = robot.getLocation().y;
+        int target_y = robot.getTargetLocation().y;
+
+        byte result;
+
+        if (target_y < robot_y) {
+            result = 1;
+        } else if (target_y > robot_y) {
+            result = -1;
+        } else {
+            result = 0;
+        }
+
+        return result;
+    }
+
+    /**
+     * Check the location of the target horizontally relative to the robot.
+     * @param IRobot - robot object
+     * @return int - 1 if east, -1 if west, 0 if neither
+     */
+    private byte isTargetEast(IRobot robot) {
+        int robot_x = robot.getLocation().x;
+        int target_x = robot.getTargetLocation().x;
+
+        byte result;
+
+        if (target_x > robot_x) {
+            result = 1;
+        } else if (target_x < robot_x) {
+            result = -1;
+        } else {
+            result = 0;
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the type of square in the direction of a heading.
+     */
+    private int lookHeading(IRobot robot, int heading) {
+        int init_heading = robot.getHeading();
+        robot.setHeading(heading);
+        int output = robot.look(IRobot.AHEAD);
+        robot.setHeading(init_heading);
+
+        return output;
+    }
+
+    /**
+     * Find the first of the slots of the cache a way out of a junction can go in.
+     * @param exit - way out packed by packExit
+     * @return int - index into the cache arrays of the first of WAYS slots
+     */
+    private int cacheSet(int exit) {
+        // Mix the bits so the ways out of neighbouring junctions land in different sets.
+        int hash = exit * 0x9E3779B1;
+        return ((hash ^ (hash >>> 16)) & (CACHE_SIZE / WAYS - 1)) * WAYS;
+    }
+
+    /**
+     * Pack a way out of a junction into an int, 1 added to x so nothing packs to 0, which marks an empty slot.
+     * @param x - x coordinate, below 16383
+     * @param y - y coordinate, below 65536
+     * @param heading - heading out of the junction
+     * @return int - packed way out
+     */
+    private int packExit(int x, int y, int heading) {
+        return ((((x + 1) << 16) | y) << 2) | (heading - IRobot.NORTH);
+    }
+
+    /**
+     * Find the number of times the robot has gone through a way out of a junction.
+     * @param x - x coordinate of the junction
+     * @param y - y coordinate of the junction
+     * @param heading - heading out of the junction
+     * @return int - visit count, 0 if the way out is not in the cache
+     */
+    private int getVisits(int x, int y, int heading) {
+        int exit = packExit(x, y, heading);
+        int set = cacheSet(exit);
+
+        for (int slot = set; slot < set + WAYS; slot++) {
+            if (cache_exits[slot] == exit) {
+                return cache_counts[slot] & 0xFF;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Count a visit through a way out of a junction. A way not in the cache replaces the least used way of its set,
+     * so the ways most worth avoiding are the last to be forgotten.
+     * @param x - x coordinate of the junction
+     * @param y - y coordinate of the junction
+     * @param heading - heading out of the junction
+     */
+    private void recordVisit(int x, int y, int heading) {
+        int exit = packExit(x, y, heading);
+        int set = cacheSet(exit);
+
+        // Find the way out.
+        int slot = set;
+        while (slot < set + WAYS && cache_exits[slot] != exit) {
+            slot++;
+        }
+
+        // Not found, so age the set, so ways used often long ago do not hold it forever, and evict the least used.
+        if (slot == set + WAYS) {
+            slot = set;
+            for (int i = set; i < set + WAYS; i++) {
+                if (cache_counts[i] != 0) {
+                    cache_counts[i]--;
+                }
+                if ((cache_counts[i] & 0xFF) < (cache_counts[slot] & 0xFF)) {
+                    slot = i;
+                }
+            }
+            cache_exits[slot] = exit;
+            cache_counts[slot] = 0;
+        }
+
+        // Rather than saturate, which would make every way out of a busy junction look the same, halve the counts
+        // of all its ways out, keeping the least used way the least used.
+        if ((cache_counts[slot] & 0xFF) == MAX_COUNT) {
+            halveVisits(x, y);
+        }
+        cache_counts[slot]++;
+    }
+
+    /**
+     * Halve the counts of every way out of a junction that is in the cache.
+     * @param x - x coordinate of the junction
+     * @param y - y coordinate of the junction
+     */
+    private void halveVisits(int x, int y) {
+        for (int heading = IRobot.NORTH; heading <= IRobot.WEST; heading++) {
+            int exit = packExit(x, y, heading);
+            int set = cacheSet(exit);
+
+            for (int slot = set; slot < set + WAYS; slot++) {
+                if (cache_exits[slot] == exit) {
+                    cache_counts[slot] = (byte) ((cache_counts[slot] & 0xFF) >> 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculate a heading that will not lead into a wall. Corridors are followed and dead ends turned back from.
+     * At junctions, prioritise the least used ways out, then those which makes robot move closer to the target,
+     * then pick randomly.
+     * @param IRobot - robot object
+     * @return int - heading
+     */
+    private int headingController(IRobot robot) {
+        int[] headings = {IRobot.NORTH, IRobot.EAST, IRobot.SOUTH, IRobot.WEST};
+        int x = robot.getLocation().x;
+        int y = robot.getLocation().y;
+        int behind = IRobot.NORTH + (robot.getHeading() - IRobot.NORTH + 2) % 4;
+
+        // Array storing the headings that are able to be moved to.
+        // follows order NORTH, EAST, SOUTH, WEST
+        boolean[] able_headings = new boolean[4];
+        int n_exits = 0;
+        for (int i = 0; i < 4; i++) {
+            able_headings[i] = lookHeading(robot, headings[i]) != IRobot.WALL;
+            if (able_headings[i]) {
+                n_exits++;
+            }
+        }
+
+        // The first step has nothing behind it, so is decided like a junction.
+        if (step_counter != 0) {
+            // Dead end, go back.
+            if (n_exits == 1) {
+                return behind;
+            }
+
+            // Corridor, carry on the way that is not back.
+            if (n_exits == 2) {
+                for (int i = 0; i < 4; i++) {
+                    if (able_headings[i] && headings[i] != behind) {
+                        return headings[i];
+                    }
+                }
+            }
+
+            // Junction, count arriving through the way back.
+            recordVisit(x, y, behind);
+        }
+
+        // Array storing the headings corresponding to the heading of the target.
+        // follows order NORTH, EAST, SOUTH, WEST
+        boolean[] priority_headings = {
+            isTargetNorth(robot) == 1,
+            isTargetEast(robot) == 1,
+            isTargetNorth(robot) == -1,
+            isTargetEast(robot) == -1
+        };
+
+        // Score every heading that does not lead to a wall. Each use of the way out costs more than pointing
+        // towards the target is worth, so the robot only goes back over old ground when it has to.
+        int best_score = Integer.MAX_VALUE;
+        int n_best = 0;
+        int[] best_headings = new int[4];
+
+        for (int i = 0; i < 4; i++) {
+            if (!able_headings[i]) {
+                continue;
+            }
+
+            int score = 2 * getVisits(x, y, headings[i]);
+            if (!priority_headings[i]) {
+                score++;
+            }
+
+            // Keep all headings tied for the lowest score.
+            if (score < best_score) {
+                best_score = score;
+                n_best = 0;
+            }
+            if (score == best_score) {
+                best_headings[n_best] = headings[i];
+                n_best++;
+            }
+        }
+
+        // Boxed in by walls, so any heading does.
+        if (n_best == 0) {
+            return robot.getHeading();
+        }
+
+        // Pick randomly between the best headings, and count leaving through it.
+        int heading = best_headings[(int) (Math.random() * n_best)];
+        recordVisit(x, y, heading);
+        return heading;
+    }
+
+    /**
+     * Clear the visit counts for a new run.
+     */
+    public void reset() {
+        cache_exits = new int[CACHE_SIZE];
+        cache_counts = new byte[CACHE_SIZE];
+        step_counter = 0;
+    }
+
+    /**
+     * Execute instructions each step to control the robot.
+     */
+    public void controlRobot(IRobot robot) {
+        // Get heading from headingController
+        int heading = headingController(robot);
+
+        // Face heading
+        robot.setHeading(heading);
+        step_counter++;
+    }
+}
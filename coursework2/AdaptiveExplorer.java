@@ -0,0 +1,455 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+class JunctionRecorder {
+    public int x;
+    public int y;
+    public int arrivalHeading;
+    public boolean isVisited = false;
+
+    public JunctionRecorder(int x, int y, int arrivalHeading) {
+        this.x = x;
+        this.y = y;
+        this.arrivalHeading = arrivalHeading;
+    }
+}
+
+
+class JunctionStack {
+    // Three ints per junction on the path from the start: x, y and arrival heading
+    private int[] entries = new int[48];
+    private int size = 0;
+
+    /**
+     * Records a junction as the robot explores into it.
+     * @param x
+     * @param y
+     * @param heading arrival heading
+     */
+    public void push(int x, int y, int heading) {
+        if (3 * size == entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+        entries[3 * size] = x;
+        entries[3 * size + 1] = y;
+        entries[3 * size + 2] = heading;
+        size++;
+    }
+
+    /**
+     * Removes the last junction recorded, once every exit of it has been explored.
+     */
+    public void pop() {
+        size--;
+    }
+
+    /**
+     * Find arrival heading of last recorded junction.
+     * @return int arrivalHeading
+     */
+    public int getArrivalHeading() {
+        return entries[3 * size - 1];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getX(int i) {
+        return entries[3 * i];
+    }
+
+    public int getY(int i) {
+        return entries[3 * i + 1];
+    }
+
+    public int getArrivalHeading(int i) {
+        return entries[3 * i + 2];
+    }
+}
+
+
+class RobotData {
+    private ArrayList<JunctionRecorder> passedJunctions = new ArrayList<JunctionRecorder>();
+
+    /**
+     * Find junction using coordinates.
+     * @param x
+     * @param y
+     * @return JunctionRecorder if found, else null
+     */
+    public JunctionRecorder searchJunction(int x, int y) {
+        for (JunctionRecorder j : passedJunctions) {
+            if (j.x == x && j.y == y) {
+                return j;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records junction using coordinates and arrival heading if not already recorded.
+     * @param x
+     * @param y
+     * @param heading
+     * @return recorded JunctionRecorder obj
+     */
+    public JunctionRecorder recordJunction(int x, int y, int heading) {
+
+        // Test if junction has already been recorded
+        JunctionRecorder junction = searchJunction(x, y);
+        if (junction != null) {
+            return junction;
+        }
+
+        // Create and record new junction
+        JunctionRecorder newJunction = new JunctionRecorder(x, y, heading);
+        passedJunctions.add(newJunction);
+        return newJunction;
+    }
+
+    /**
+     * Find arrival heading of a junction using coordinates.
+     * @param x
+     * @param y
+     * @return int arrivalHeading
+     */
+    public int getArrivalHeading(int x, int y) {
+        JunctionRecorder junction = searchJunction(x, y);
+        return junction.arrivalHeading;
+    }
+
+    public int size() {
+        return passedJunctions.size();
+    }
+}
+
+
+enum RobotMode {
+    EXPLORE,
+    BACKTRACK
+}
+
+
+/**
+ * Explores like Ex2, keeping only a stack of the junctions on the path from the start, until it finds the maze has a
+ * loop. In a maze without loops every cell next to the robot while it explores is new, except the one it came from,
+ * so the first time it sees a visited cell any other way it has found a loop. It then moves the junctions on the stack
+ * into a store keyed by coordinates and carries on as Ex3, turning back from junctions it has been to before.
+ * Junctions popped off the stack are not in the store, but every exit of them has been explored, so they are treated
+ * like any other junction with no unexplored exits. Perfect mazes never pay for the store, and once a maze is known
+ * to have loops later runs start with the store.
+ */
+public class AdaptiveExplorer {
+    private final static int[] directions = {IRobot.AHEAD, IRobot.BEHIND, IRobot.LEFT, IRobot.RIGHT};
+    private JunctionStack junctionStack;
+    private RobotData robotData;
+    private int stepCounter = 0;
+    private RobotMode mode = RobotMode.EXPLORE;
+
+    // Whether the maze has been found to have a loop, kept between runs
+    private boolean hasLoops = false;
+
+    /**
+     * Called when run is reset.
+     */
+    public void reset() {
+        junctionStack = hasLoops ? null : new JunctionStack();
+        robotData = hasLoops ? new RobotData() : null;
+        mode = RobotMode.EXPLORE;
+        stepCounter = 0;
+    }
+
+    /**
+     * Called each step.
+     * @param robot
+     */
+    public void controlRobot(IRobot robot) {
+
+        // If it is a new maze
+        if (stepCounter == 0 && robot.getRuns() == 0) {
+            hasLoops = false;
+            reset();
+        }
+
+        // A visited cell anywhere but behind while exploring closes a loop
+        if (robotData == null && mode == RobotMode.EXPLORE && stepCounter != 0 && seesVisitedCell(robot)) {
+            storeJunctions();
+        }
+
+        // Either explore of backtrack depending on the mode
+        if (mode == RobotMode.EXPLORE) {
+            explorerControl(robot);
+        } else {  // mode == RobotMode.BACKTRACK
+            backtrackControl(robot);
+        }
+
+        // Increment stepCounter
+        stepCounter++;
+    }
+
+    /**
+     * @param robot
+     * @return true if there is a BEENBEFORE cell ahead, left or right
+     */
+    private boolean seesVisitedCell(IRobot robot) {
+        for (int d : directions) {
+            if (d != IRobot.BEHIND && robot.look(d) == IRobot.BEENBEFORE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves the junctions on the stack into the coordinate store, as explored junctions with the same arrival
+     * headings, and switches to Ex3 style exploring.
+     */
+    private void storeJunctions() {
+        robotData = new RobotData();
+        for (int i = 0; i < junctionStack.size(); i++) {
+            JunctionRecorder junction = robotData.recordJunction(junctionStack.getX(i), junctionStack.getY(i),
+                junctionStack.getArrivalHeading(i));
+            junction.isVisited = true;
+        }
+        junctionStack = null;
+        hasLoops = true;
+
+        System.out.println("Loop found after " + stepCounter + " steps, moved " + robotData.size()
+            + " junctions to the coordinate store");
+    }
+
+    /**
+     * Controller for when the robot is exploring.
+     * @param robot
+     */
+    private void explorerControl(IRobot robot) {
+        int exits = nonwallExits(robot);
+
+        if (exits == 0 || exits == 1) {  // Deadend
+
+            // Set mode to backtrack if it is not the first step
+            if (stepCounter != 0) {
+                mode = RobotMode.BACKTRACK;
+            }
+
+            deadEndControl(robot);
+
+        } else if (exits > 2) {  // Junction or crossroads
+            if (robotData == null) {
+                junctionStack.push(robot.getLocation().x, robot.getLocation().y, robot.getHeading());
+                junctionControl(robot);
+            } else {
+                JunctionRecorder junction = robotData.recordJunction(robot.getLocation().x, robot.getLocation().y,
+                    robot.getHeading());
+                storedJunctionControl(robot, junction);
+            }
+
+        } else if (exits == 2) {  // Corridor
+            corridorControl(robot);
+        }
+    }
+
+    /**
+     * Controller for when the robot is backtracking.
+     * @param robot
+     */
+    private void backtrackControl(IRobot robot) {
+        int exits = nonwallExits(robot);
+
+        if (exits == 0 || exits == 1) {  // Deadend
+            deadEndControl(robot);
+        } else if (exits > 2) {  // Junction or crossroads
+            backtrackJunctionControl(robot);
+        } else if (exits == 2) {  // Corridor
+            corridorControl(robot);
+        }
+    }
+
+    /**
+     * Controls the robot for when it meets a junction while backtracking.
+     * If there are no passage exits, backtrack by moving in the opposite direction to the arrival heading, taken from
+     * the top of the stack or from the store. Else, go into explorer mode and pick a passage exit randomly.
+     * @param robot
+     */
+    private void backtrackJunctionControl(IRobot robot) {
+        int passageExits = passageExits(robot);
+
+        if (passageExits == 0) {
+
+            // Go opposite direction of initial arrival heading.
+            int arrivalHeading;
+            if (robotData == null) {
+                arrivalHeading = junctionStack.getArrivalHeading();
+                junctionStack.pop();
+            } else {
+                arrivalHeading = robotData.getArrivalHeading(robot.getLocation().x, robot.getLocation().y);
+            }
+            int oppositeHeading = ((arrivalHeading + 2) % 4) + IRobot.NORTH;
+            robot.setHeading(oppositeHeading);
+
+        } else {  // passageExits > 0
+
+            // Switch to explorer mode
+            mode = RobotMode.EXPLORE;
+            facePassage(robot);
+        }
+    }
+
+    /**
+     * Controls the robot for when it meets a dead end.
+     * If first step, find the direction it can move to.
+     * Else, go back from the direction it came from
+     * @param robot
+     */
+    private void deadEndControl(IRobot robot) {
+        if (stepCounter != 0) {
+
+            // Go back
+            robot.face(IRobot.BEHIND);
+
+        } else {
+
+            // Iterate through all directions until it finds the only one it can move to.
+            for (int d : directions) {
+                if (robot.look(d) != IRobot.WALL) {
+                    // Face direction
+                    robot.face(d);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Controls the robot for when it meets a corridor.
+     * @param robot
+     */
+    private void corridorControl(IRobot robot) {
+
+        // Iterates through all directions that are not behind the robot until it finds the only one it can move to.
+        for (int d : directions) {
+            if (d != IRobot.BEHIND && robot.look(d) != IRobot.WALL) {
+
+                // Face direction
+                robot.face(d);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Controls the robot for when it explores into a junction before any loop has been found, so the junction is
+     * new and every exit but the one behind is a PASSAGE.
+     * @param robot
+     */
+    private void junctionControl(IRobot robot) {
+        if (passageExits(robot) == 0) {
+
+            // Only the first step can reach a junction with every exit explored
+            faceNonwall(robot);
+        } else {
+            facePassage(robot);
+        }
+    }
+
+    /**
+     * Controls the robot for when it explores into a junction once the maze is known to have loops.
+     * If it has been visited before, or every exit of it has been explored, turn around and go into backtrack mode.
+     * Else, pick between passage exits.
+     * @param robot
+     * @param junction
+     */
+    private void storedJunctionControl(IRobot robot, JunctionRecorder junction) {
+
+        // Junction visited before, or popped off the stack before the loop was found
+        if (junction.isVisited || (stepCounter != 0 && passageExits(robot) == 0)) {
+            junction.isVisited = true;
+
+            // Turn around
+            robot.face(IRobot.BEHIND);
+
+            // Go into backtrack mode
+            mode = RobotMode.BACKTRACK;
+
+        } else {  // Not visited before
+            junction.isVisited = true;
+
+            if (passageExits(robot) == 0) {
+                faceNonwall(robot);
+            } else {
+                facePassage(robot);
+            }
+        }
+    }
+
+    /**
+     * Faces a random PASSAGE exit.
+     * @param robot
+     */
+    private void facePassage(IRobot robot) {
+
+        // Get arraylist of all directions of passage exits
+        ArrayList<Integer> passageExitsArr = new ArrayList<Integer>();
+        for (int d : directions) {
+            if (robot.look(d) == IRobot.PASSAGE) {
+                passageExitsArr.add(d);
+            }
+        }
+
+        // Face random direction
+        int randIndex = (int) (Math.random() * passageExitsArr.size());
+        robot.face(passageExitsArr.get(randIndex));
+    }
+
+    /**
+     * Faces a random non-WALL exit.
+     * @param robot
+     */
+    private void faceNonwall(IRobot robot) {
+
+        // Get arraylist of all directions of non-wall exits
+        ArrayList<Integer> allExitsArr = new ArrayList<Integer>();
+        for (int d : directions) {
+            if (robot.look(d) != IRobot.WALL) {
+                allExitsArr.add(d);
+            }
+        }
+
+        // Face random direction
+        int randIndex = (int) (Math.random() * allExitsArr.size());
+        robot.face(allExitsArr.get(randIndex));
+    }
+
+    /**
+     * Finds the number of non-WALL exits in the 4 cardinal directions around the robot.
+     * @param robot
+     * @return int number of non-WALL exits
+     */
+    private int nonwallExits(IRobot robot) {
+        int exits = 0;
+        for (int d : directions) {
+            if (robot.look(d) != IRobot.WALL) {
+                exits++;
+            }
+        }
+        return exits;
+    }
+
+    /**
+     * Returns the number of PASSAGE exits in the 4 cardinal directions around the robot.
+     * @param robot
+     * @return int number of PASSAGE exits
+     */
+    private int passageExits(IRobot robot) {
+        int exits = 0;
+        for (int d : directions) {
+            if (robot.look(d) == IRobot.PASSAGE) {
+                exits++;
+            }
+        }
+        return exits;
+    }
+}
@@ -74,11 +74,68 @@ enum RobotMode {
 }
 
 
+/**
+ * Hooks the harness sets with setStepRecorder to record what the controller does, see harness/StepRecording.
+ */
+interface StepRecorder {
+    /**
+     * Called before a step is decided.
+     * @param robot
+     */
+    void beginStep(IRobot robot);
+
+    /**
+     * Called with the result of every look made while deciding a step.
+     * @param robot
+     * @param direction relative direction looked in
+     * @param result
+     */
+    void look(IRobot robot, int direction, int result);
+
+    /**
+     * Called once the heading for a step has been chosen, before the robot moves.
+     * @param robot
+     */
+    void endStep(IRobot robot);
+
+    /**
+     * Called when the controller is reset.
+     */
+    void endRun();
+
+    /**
+     * Called when a step ends in a different mode from the last one reported.
+     * @param from name of the mode reported last
+     * @param to
+     * @param x
+     * @param y
+     */
+    void modeChanged(String from, String to, int x, int y);
+
+    /**
+     * Called when a junction is explored for the first time.
+     * @param x
+     * @param y
+     * @param arrivalHeading
+     */
+    void junctionRecorded(int x, int y, int arrivalHeading);
+
+    /**
+     * Called when an explored junction is reached again while exploring, which turns the robot back.
+     * @param x
+     * @param y
+     */
+    void junctionRevisited(int x, int y);
+}
+
+
 public class Ex3 {
     private final static int[] directions = {IRobot.AHEAD, IRobot.BEHIND, IRobot.LEFT, IRobot.RIGHT};
     private RobotData robotData;
     private int stepCounter = 0;
     private RobotMode mode = RobotMode.EXPLORE;
+    private RobotMode reportedMode = RobotMode.EXPLORE;
+    private StepRecorder recorder;
     
     /**
      * Called when run is reset.
@@ -86,7 +143,20 @@ public class Ex3 {
     public void reset() {
         robotData = new RobotData();
         mode = RobotMode.EXPLORE;
+        reportedMode = mode;
         stepCounter = 0;
+
+        if (recorder != null) {
+            recorder.endRun();
+        }
+    }
+
+    /**
+     * Records what the controller does from here on.
+     * @param recorder null to stop recording
+     */
+    public void setStepRecorder(StepRecorder recorder) {
+        this.recorder = recorder;
     }
     
     /**
@@ -99,17 +169,43 @@ public class Ex3 {
             reset();
         }
 
+        if (recorder != null) {
+            recorder.beginStep(robot);
+        }
+
         // Either explore of backtrack depending on the mode
+        int x = robot.getLocation().x;
+        int y = robot.getLocation().y;
         if (mode == RobotMode.EXPLORE) {
             explorerControl(robot);
         } else {  // mode == RobotMode.BACKTRACK
             backtrackControl(robot);
         }
 
+        if (mode != reportedMode) {
+            reportModeChange(x, y);
+        }
+
+        if (recorder != null) {
+            recorder.endStep(robot);
+        }
+
         // Increment stepCounter
         stepCounter++;
     }
 
+    /**
+     * Reports a change of mode since the last one reported to the recorder.
+     * @param x
+     * @param y
+     */
+    private void reportModeChange(int x, int y) {
+        if (recorder != null) {
+            recorder.modeChanged(reportedMode.name(), mode.name(), x, y);
+        }
+        reportedMode = mode;
+    }
+
     /**
      * Controller for when the robot is backtracking.
      * @param robot
@@ -150,7 +246,7 @@ public class Ex3 {
             // Get arraylist of passage exits
             ArrayList<Integer> passageExitsArr = new ArrayList<Integer>();
             for (int d : directions) {
-                if (robot.look(d) == IRobot.PASSAGE) {
+                if (look(robot, d) == IRobot.PASSAGE) {
                     passageExitsArr.add(d);
                 }
             }
@@ -197,7 +293,7 @@ public class Ex3 {
     private int nonwallExits(IRobot robot) {
         int exits = 0;
         for (int d : directions) {
-            if (robot.look(d) != IRobot.WALL) {
+            if (look(robot, d) != IRobot.WALL) {
                 exits++;
             }
         }
@@ -212,7 +308,7 @@ public class Ex3 {
     private int passageExits(IRobot robot) {
         int exits = 0;
         for (int d : directions) {
-            if (robot.look(d) == IRobot.PASSAGE) {
+            if (look(robot, d) == IRobot.PASSAGE) {
                 exits++;
             }
         }
@@ -234,7 +330,7 @@ public class Ex3 {
 
             // Iterate through all directions until it finds the only one it can move to.
             for (int d : directions) {
-                if (robot.look(d) != IRobot.WALL) {
+                if (look(robot, d) != IRobot.WALL) {
                     // Face direction
                     robot.face(d);
                     return;
@@ -251,7 +347,7 @@ public class Ex3 {
 
         // Iterates through all directions that are not behind the robot until it finds the only one it can move to.
         for (int d : directions) {
-            if (d != IRobot.BEHIND && robot.look(d) != IRobot.WALL) {
+            if (d != IRobot.BEHIND && look(robot, d) != IRobot.WALL) {
 
                 // Face direction
                 robot.face(d);
@@ -271,6 +367,9 @@ public class Ex3 {
 
         // Junction visited before
         if (junction.isVisited) {
+            if (recorder != null) {
+                recorder.junctionRevisited(junction.x, junction.y);
+            }
 
             // Turn around
             robot.face(IRobot.BEHIND);
@@ -280,11 +379,14 @@ public class Ex3 {
 
         } else {  // Not visited before
             junction.isVisited = true;
+            if (recorder != null) {
+                recorder.junctionRecorded(junction.x, junction.y, junction.arrivalHeading);
+            }
 
             // Get arraylist of all directions of passage exits
             ArrayList<Integer> passageExitsArr = new ArrayList<Integer>();
             for (int d : directions) {
-                if (robot.look(d) == IRobot.PASSAGE) {
+                if (look(robot, d) == IRobot.PASSAGE) {
                     passageExitsArr.add(d);
                 }
             }
@@ -295,7 +397,7 @@ public class Ex3 {
                 // Pick random non wall direction
                 ArrayList<Integer> exitsArr = new ArrayList<Integer>();
                 for (int d : directions) {
-                    if (robot.look(d) != IRobot.WALL) {
+                    if (look(robot, d) != IRobot.WALL) {
                         exitsArr.add(d);
                     }
                 }
@@ -310,4 +412,18 @@ public class Ex3 {
             robot.face(passageExitsArr.get(randIndex));
         }
     }
+
+    /**
+     * Looks in a direction, recording the result.
+     * @param robot
+     * @param direction
+     * @return WALL, PASSAGE or BEENBEFORE
+     */
+    private int look(IRobot robot, int direction) {
+        int result = robot.look(direction);
+        if (recorder != null) {
+            recorder.look(robot, direction, result);
+        }
+        return result;
+    }
 }
@@ -1,5 +1,21 @@
 import uk.ac.warwick.dcs.maze.logic.IRobot;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 class JunctionRecorder {
@@ -17,205 +33,2868 @@ class JunctionRecorder {
 }
 
 
+class MazeMap {
+    public final static int[] DX = {0, 1, 0, -1};
+    public final static int[] DY = {-1, 0, 1, 0};
+    public final static byte KNOWN = 0x10;
+    public final static byte DEAD = 0x20;
+
+    public int width = 64;
+    public int height = 64;
+    public int knownCells = 0;
+
+    // Per cell: bits 0-3 are the non-WALL exits indexed by absolute heading (NORTH..WEST), bit 4 is set once sensed.
+    // The grid always reaches one cell past every known cell, so DistanceField and fillDeadEnds can step through an
+    // exit by adding to the index without checking the bounds
+    public byte[] cells = new byte[width * height];
+
+    /**
+     * Grows the grid so that it contains the coordinates.
+     * @param x
+     * @param y
+     */
+    private void ensureCapacity(int x, int y) {
+        if (x < width && y < height) {
+            return;
+        }
+
+        int newWidth = width;
+        int newHeight = height;
+        while (x >= newWidth) {
+            newWidth *= 2;
+        }
+        while (y >= newHeight) {
+            newHeight *= 2;
+        }
+
+        // Copy rows into the larger grid
+        byte[] newCells = new byte[newWidth * newHeight];
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(cells, row * width, newCells, row * newWidth, width);
+        }
+
+        cells = newCells;
+        width = newWidth;
+        height = newHeight;
+    }
+
+    /**
+     * @return independent copy of the map
+     */
+    public MazeMap copy() {
+        MazeMap map = new MazeMap();
+        map.width = width;
+        map.height = height;
+        map.knownCells = knownCells;
+        map.cells = cells.clone();
+        return map;
+    }
+
+    /**
+     * Writes the grid to a stream, as one block.
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(knownCells);
+        out.write(cells);
+    }
+
+    /**
+     * Reads a map written by writeTo.
+     * @param in
+     * @return MazeMap
+     * @throws IOException
+     */
+    public static MazeMap readFrom(DataInputStream in) throws IOException {
+        MazeMap map = new MazeMap();
+        map.width = in.readInt();
+        map.height = in.readInt();
+        map.knownCells = in.readInt();
+        map.cells = new byte[map.width * map.height];
+        in.readFully(map.cells);
+        return map;
+    }
+
+    /**
+     * Records the non-WALL exits of a cell. Known neighbours with an exit into a wall of the cell, recorded before a wall
+     * appeared there, lose that exit so the map stays the same from both sides.
+     * @param x
+     * @param y
+     * @param exitMask bit i set if heading NORTH + i is not a wall
+     */
+    public void recordCell(int x, int y, int exitMask) {
+        // Keep the neighbours its exits lead to inside the grid too, see cells
+        ensureCapacity(x + 1, y + 1);
+        if ((cells[y * width + x] & KNOWN) == 0) {
+            knownCells++;
+        }
+        cells[y * width + x] = (byte) (KNOWN | exitMask);
+
+        for (int i = 0; i < 4; i++) {
+            if ((exitMask & (1 << i)) == 0) {
+                removeExit(x, y, i);
+            }
+        }
+    }
+
+    /**
+     * Removes an exit found to be blocked, from the cell and from the neighbour it led to if known.
+     * @param x
+     * @param y
+     * @param heading absolute heading index 0-3 of the exit
+     */
+    public void removeExit(int x, int y, int heading) {
+        if (isKnown(x, y)) {
+            cells[y * width + x] &= ~(1 << heading);
+        }
+        if (isKnown(x + DX[heading], y + DY[heading])) {
+            cells[(y + DY[heading]) * width + x + DX[heading]] &= ~(1 << ((heading + 2) % 4));
+        }
+    }
+
+    /**
+     * @param other
+     * @return true if every cell known in both maps has the same exits in both, as when they are of the same maze
+     */
+    public boolean agreesWith(MazeMap other) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                byte cell = cells[y * width + x];
+                if ((cell & KNOWN) != 0 && other.isKnown(x, y) && other.getExits(x, y) != (cell & 0xF)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return true if the cell has been sensed
+     */
+    public boolean isKnown(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height && (cells[y * width + x] & KNOWN) != 0;
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return exit mask of the cell, 0 if not known
+     */
+    public int getExits(int x, int y) {
+        if (!isKnown(x, y)) {
+            return 0;
+        }
+        return cells[y * width + x] & 0xF;
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return true if the cell has been filled in as part of a dead end branch
+     */
+    public boolean isDead(int x, int y) {
+        return isKnown(x, y) && (cells[y * width + x] & DEAD) != 0;
+    }
+
+    /**
+     * Finds the exits of a cell that do not lead into a filled dead end.
+     * @param cell index y * width + x
+     * @return exit mask
+     */
+    public int liveExits(int cell) {
+        int exits = cells[cell] & 0xF;
+        for (int i = 0; i < 4; i++) {
+            if ((exits & (1 << i)) != 0 && (cells[cell + DY[i] * width + DX[i]] & DEAD) != 0) {
+                exits &= ~(1 << i);
+            }
+        }
+        return exits;
+    }
+
+    /**
+     * Repeatedly fills in known cells with at most one live exit, collapsing every fully explored branch that
+     * does not lead to the start or target. Exits into cells not yet sensed count as live.
+     * @param start cell index of the start
+     * @param target cell index of the target
+     * @return number of cells filled
+     */
+    public int fillDeadEnds(int start, int target) {
+        int[] queue = new int[64];
+        int tail = 0;
+        for (int cell = 0; cell < cells.length; cell++) {
+            if (isFillable(cell, start, target)) {
+                if (tail == queue.length) {
+                    queue = Arrays.copyOf(queue, tail * 2);
+                }
+                queue[tail++] = cell;
+            }
+        }
+
+        // Filling a cell can turn its neighbour into a dead end
+        int filled = 0;
+        for (int head = 0; head < tail; head++) {
+            int cell = queue[head];
+            if (!isFillable(cell, start, target)) {
+                continue;
+            }
+            cells[cell] |= DEAD;
+            filled++;
+
+            int exits = cells[cell] & 0xF;
+            for (int i = 0; i < 4; i++) {
+                int neighbour = cell + DY[i] * width + DX[i];
+                if ((exits & (1 << i)) != 0 && isFillable(neighbour, start, target)) {
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, tail * 2);
+                    }
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * @param cell
+     * @param start
+     * @param target
+     * @return true if the cell is known, not yet filled, not the start or target and has at most one live exit
+     */
+    private boolean isFillable(int cell, int start, int target) {
+        if (cell == start || cell == target || (cells[cell] & KNOWN) == 0 || (cells[cell] & DEAD) != 0) {
+            return false;
+        }
+        return Integer.bitCount(liveExits(cell)) <= 1;
+    }
+}
+
+
+class DistanceField {
+    public final static int UNREACHED = -1;
+
+    private MazeMap map;
+    private int targetX;
+    private int targetY;
+    private int width;
+    private int[] distance;
+    private int[] queue;
+
+    // Cells queued while repairing the field after an exit is removed, cleared again afterwards
+    private boolean[] queued;
+
+    public DistanceField(MazeMap map, int targetX, int targetY) {
+        this.map = map;
+        this.targetX = targetX;
+        this.targetY = targetY;
+    }
+
+    /**
+     * @param map copy of the map this field was computed over
+     * @return independent copy of the field over the map
+     */
+    public DistanceField copy(MazeMap map) {
+        DistanceField field = new DistanceField(map, targetX, targetY);
+        field.width = width;
+        field.distance = distance.clone();
+        field.queue = new int[queue.length];
+        return field;
+    }
+
+    /**
+     * @return approximate heap used by the field
+     */
+    public long estimateBytes() {
+        return 8L * distance.length;
+    }
+
+    /**
+     * Floods the known map outwards from the target, storing the number of steps to the target for every reachable cell.
+     */
+    public void compute() {
+        width = map.width;
+        distance = new int[map.width * map.height];
+        queue = new int[map.width * map.height];
+        Arrays.fill(distance, UNREACHED);
+
+        int target = targetY * width + targetX;
+        if (target >= distance.length) {
+            return;
+        }
+
+        distance[target] = 0;
+        queue[0] = target;
+        flood(1);
+    }
+
+    /**
+     * Updates the field after a new cell has been recorded in the map.
+     * Only distances that decrease are propagated, so the cost is proportional to the cells that improve.
+     * @param x
+     * @param y
+     */
+    public void cellLearned(int x, int y) {
+        if (map.width != width || map.width * map.height != distance.length) {
+            resize();
+        }
+
+        int cell = y * width + x;
+        int exits = map.cells[cell] & 0xF;
+
+        // Take the best distance of any neighbour that can be reached through an exit
+        int best = UNREACHED;
+        for (int i = 0; i < 4; i++) {
+            if ((exits & (1 << i)) != 0) {
+                int d = distance[cell + MazeMap.DY[i] * width + MazeMap.DX[i]];
+                if (d != UNREACHED && (best == UNREACHED || d + 1 < best)) {
+                    best = d + 1;
+                }
+            }
+        }
+
+        if (best == UNREACHED || (distance[cell] != UNREACHED && distance[cell] <= best)) {
+            return;
+        }
+
+        distance[cell] = best;
+        queue[0] = cell;
+        flood(1);
+    }
+
+    /**
+     * Repairs the field after an exit has been removed from the map, as when a wall has appeared on the route.
+     * As in LPA*, only cells whose distance depended on the exit are searched again. Starting from the end of the exit
+     * further from the target, cells left with no neighbour one step closer are cleared, then the cleared cells are
+     * flooded in order of distance from the cells bordering them.
+     * @param x
+     * @param y
+     * @param heading absolute heading index 0-3 of the removed exit
+     * @return number of cells searched again
+     */
+    public int exitRemoved(int x, int y, int heading) {
+        if (map.width != width || map.width * map.height != distance.length) {
+            resize();
+        }
+        int nx = x + MazeMap.DX[heading];
+        int ny = y + MazeMap.DY[heading];
+        int a = getDistance(x, y);
+        int b = getDistance(nx, ny);
+        if (a == UNREACHED || b == UNREACHED || Math.abs(a - b) != 1) {
+            return 0;
+        }
+        if (queued == null || queued.length != distance.length) {
+            queued = new boolean[distance.length];
+        }
+
+        // Clear cells in order of distance, so every cell one step closer has been decided before a cell is
+        int start = a > b ? y * width + x : ny * width + nx;
+        queue[0] = start;
+        queued[start] = true;
+        int tail = 1;
+        int cleared = 0;
+        for (int head = 0; head < tail; head++) {
+            int cell = queue[head];
+            int d = distance[cell];
+            if (closerNeighbour(cell, d) != -1) {
+                continue;
+            }
+
+            distance[cell] = UNREACHED;
+            queue[cleared++] = cell;
+            for (int i = 0; i < 4; i++) {
+                int neighbour = connectedNeighbour(cell, i);
+                if (neighbour != -1 && !queued[neighbour] && distance[neighbour] == d + 1) {
+                    queued[neighbour] = true;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+
+        // Every cell queued was the start or next to a cleared cell
+        queued[start] = false;
+        for (int i = 0; i < cleared; i++) {
+            for (int j = 0; j < 4; j++) {
+                int neighbour = connectedNeighbour(queue[i], j);
+                if (neighbour != -1) {
+                    queued[neighbour] = false;
+                }
+            }
+        }
+
+        // Seed every cleared cell from the best neighbour that kept its distance, closest first
+        long[] seeds = new long[cleared];
+        int seedCount = 0;
+        for (int i = 0; i < cleared; i++) {
+            int cell = queue[i];
+            int best = UNREACHED;
+            for (int j = 0; j < 4; j++) {
+                int neighbour = connectedNeighbour(cell, j);
+                if (neighbour != -1 && distance[neighbour] != UNREACHED && (best == UNREACHED || distance[neighbour] + 1 < best)) {
+                    best = distance[neighbour] + 1;
+                }
+            }
+            if (best != UNREACHED) {
+                seeds[seedCount++] = (long) best << 32 | cell;
+            }
+        }
+        Arrays.sort(seeds, 0, seedCount);
+
+        // Breadth first search taking the seeds in as the search reaches their distance
+        int head = 0;
+        tail = 0;
+        int s = 0;
+        while (s < seedCount || head < tail) {
+            int cell;
+            if (head == tail || (s < seedCount && (int) (seeds[s] >>> 32) <= distance[queue[head]])) {
+                cell = (int) seeds[s];
+                int d = (int) (seeds[s++] >>> 32);
+                if (distance[cell] != UNREACHED && distance[cell] <= d) {
+                    continue;
+                }
+                distance[cell] = d;
+            } else {
+                cell = queue[head++];
+            }
+
+            for (int i = 0; i < 4; i++) {
+                int neighbour = connectedNeighbour(cell, i);
+                if (neighbour != -1 && (distance[neighbour] == UNREACHED || distance[neighbour] > distance[cell] + 1)) {
+                    distance[neighbour] = distance[cell] + 1;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+        return cleared;
+    }
+
+    /**
+     * @param cell
+     * @param heading absolute heading index 0-3
+     * @return the known neighbour through the exit with an exit leading back, -1 if none
+     */
+    private int connectedNeighbour(int cell, int heading) {
+        if ((map.cells[cell] & (1 << heading)) == 0) {
+            return -1;
+        }
+        int x = cell % width + MazeMap.DX[heading];
+        int neighbour = cell + MazeMap.DY[heading] * width + MazeMap.DX[heading];
+        if (neighbour < 0 || neighbour >= distance.length || x < 0 || x >= width) {
+            return -1;
+        }
+        byte n = map.cells[neighbour];
+        return (n & MazeMap.KNOWN) != 0 && (n & (1 << ((heading + 2) % 4))) != 0 ? neighbour : -1;
+    }
+
+    /**
+     * @param cell
+     * @param d distance of the cell
+     * @return a connected neighbour at distance d - 1, -1 if none
+     */
+    private int closerNeighbour(int cell, int d) {
+        for (int i = 0; i < 4; i++) {
+            int neighbour = connectedNeighbour(cell, i);
+            if (neighbour != -1 && distance[neighbour] != UNREACHED && distance[neighbour] == d - 1) {
+                return neighbour;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Breadth first search from the cells in the queue, lowering the distance of every neighbour it improves.
+     * @param tail number of cells already in the queue
+     */
+    private void flood(int tail) {
+        int head = 0;
+        while (head < tail) {
+            int cell = queue[head++];
+            int next = distance[cell] + 1;
+
+            int x = cell % width;
+            for (int i = 0; i < 4; i++) {
+                int neighbour = cell + MazeMap.DY[i] * width + MazeMap.DX[i];
+                if (neighbour < 0 || neighbour >= distance.length || x + MazeMap.DX[i] < 0 || x + MazeMap.DX[i] >= width) {
+                    continue;
+                }
+
+                // Neighbour must be known and have an exit leading back to this cell
+                byte n = map.cells[neighbour];
+                if ((n & MazeMap.KNOWN) == 0 || (n & (1 << ((i + 2) % 4))) == 0) {
+                    continue;
+                }
+
+                if (distance[neighbour] == UNREACHED || distance[neighbour] > next) {
+                    distance[neighbour] = next;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the field into a grid matching the current size of the map.
+     */
+    private void resize() {
+        int[] newDistance = new int[map.width * map.height];
+        Arrays.fill(newDistance, UNREACHED);
+        for (int row = 0; row < distance.length / width; row++) {
+            System.arraycopy(distance, row * width, newDistance, row * map.width, width);
+        }
+
+        distance = newDistance;
+        queue = new int[newDistance.length];
+        width = map.width;
+    }
+
+    /**
+     * Find the distance to the target from a cell.
+     * @param x
+     * @param y
+     * @return number of steps, UNREACHED if no known route
+     */
+    public int getDistance(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y * width + x >= distance.length) {
+            return UNREACHED;
+        }
+        return distance[y * width + x];
+    }
+
+    /**
+     * Find the heading towards the neighbour closest to the target.
+     * @param x
+     * @param y
+     * @return absolute heading, -1 if the cell has no known route
+     */
+    public int getHeading(int x, int y) {
+        int d = getDistance(x, y);
+        if (d == UNREACHED || d == 0) {
+            return -1;
+        }
+
+        int exits = map.getExits(x, y);
+        for (int i = 0; i < 4; i++) {
+            if ((exits & (1 << i)) != 0 && getDistance(x + MazeMap.DX[i], y + MazeMap.DY[i]) == d - 1) {
+                return IRobot.NORTH + i;
+            }
+        }
+        return -1;
+    }
+}
+
+
+class CostHeap {
+    // Binary min heap of items by cost. Costs are kept apart from the items so any long cost orders correctly
+    private long[] costs;
+    private int[] items;
+    private int size = 0;
+
+    public CostHeap(int capacity) {
+        costs = new long[Math.max(16, capacity)];
+        items = new int[costs.length];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return cost of the item pop would return
+     */
+    public long topCost() {
+        return costs[0];
+    }
+
+    /**
+     * Adds an item. An item can be in the heap more than once, so searches skip entries whose cost is stale.
+     * @param cost
+     * @param item
+     */
+    public void push(long cost, int item) {
+        if (size == costs.length) {
+            costs = Arrays.copyOf(costs, size * 2);
+            items = Arrays.copyOf(items, size * 2);
+        }
+
+        int i = size++;
+        while (i > 0 && costs[(i - 1) / 2] > cost) {
+            costs[i] = costs[(i - 1) / 2];
+            items[i] = items[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        costs[i] = cost;
+        items[i] = item;
+    }
+
+    /**
+     * Removes an item of least cost.
+     * @return item
+     */
+    public int pop() {
+        int top = items[0];
+        size--;
+        long cost = costs[size];
+        int item = items[size];
+
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && costs[child + 1] < costs[child]) {
+                child++;
+            }
+            if (costs[child] >= cost) {
+                break;
+            }
+            costs[i] = costs[child];
+            items[i] = items[child];
+            i = child;
+        }
+        costs[i] = cost;
+        items[i] = item;
+        return top;
+    }
+}
+
+
+class JunctionGraph {
+    public int width;
+    public int nodeCount;
+    public int edgeCount;
+
+    // Cell index (y * width + x) of each node, in ascending order
+    public int[] nodeCell;
+
+    // Edges of node n are edgeTarget[offsets[n]] .. edgeTarget[offsets[n + 1] - 1]
+    public int[] offsets;
+    public int[] edgeTarget;
+    public int[] edgeLength;
+    public byte[] edgeHeading;
+    public byte[] edgeArrival;
+    public int[] edgeTurns;
+
+    // Results of the last call to shortestPaths
+    public long[] pathCost;
+    public int[] prevEdge;
+
+    // Cost to the target of every (node, arrival heading) state from the last call to planRoute
+    public long[] stateCost;
+
+    /**
+     * Copies the graph. The frozen arrays are shared, the search results are not.
+     * @return JunctionGraph
+     */
+    public JunctionGraph copy() {
+        JunctionGraph graph = new JunctionGraph();
+        graph.width = width;
+        graph.nodeCount = nodeCount;
+        graph.edgeCount = edgeCount;
+        graph.nodeCell = nodeCell;
+        graph.offsets = offsets;
+        graph.edgeTarget = edgeTarget;
+        graph.edgeLength = edgeLength;
+        graph.edgeHeading = edgeHeading;
+        graph.edgeArrival = edgeArrival;
+        graph.edgeTurns = edgeTurns;
+        graph.pathCost = pathCost == null ? null : pathCost.clone();
+        graph.prevEdge = prevEdge == null ? null : prevEdge.clone();
+        graph.stateCost = stateCost == null ? null : stateCost.clone();
+        return graph;
+    }
+
+    /**
+     * @return approximate heap used by the frozen arrays and search results
+     */
+    public long estimateBytes() {
+        long bytes = 4L * nodeCount + 4L * (nodeCount + 1) + 14L * edgeCount;
+        bytes += pathCost == null ? 0 : 12L * nodeCount;
+        bytes += stateCost == null ? 0 : 32L * nodeCount;
+        return bytes;
+    }
+
+    /**
+     * Freezes the junctions of the known map into compressed sparse row arrays.
+     * Nodes are junctions and crossroads plus the start and target, edges are fully explored corridors between them.
+     * @param map
+     * @param startX
+     * @param startY
+     * @param targetX
+     * @param targetY
+     * @return frozen JunctionGraph
+     */
+    public static JunctionGraph freeze(MazeMap map, int startX, int startY, int targetX, int targetY) {
+        JunctionGraph graph = new JunctionGraph();
+        graph.width = map.width;
+
+        int start = startY * map.width + startX;
+        int target = targetY * map.width + targetX;
+
+        // Scan in row-major order so nodeCell is sorted
+        int[] cells = new int[64];
+        int count = 0;
+        for (int cell = 0; cell < map.cells.length; cell++) {
+            if (isNode(map, cell, start, target)) {
+                if (count == cells.length) {
+                    cells = Arrays.copyOf(cells, count * 2);
+                }
+                cells[count++] = cell;
+            }
+        }
+        graph.nodeCount = count;
+        graph.nodeCell = Arrays.copyOf(cells, count);
+
+        // Walk every exit of every node to the next node
+        graph.offsets = new int[count + 1];
+        int[] targets = new int[count * 2 + 1];
+        int[] lengths = new int[count * 2 + 1];
+        byte[] headings = new byte[count * 2 + 1];
+        byte[] arrivals = new byte[count * 2 + 1];
+        int[] turns = new int[count * 2 + 1];
+        int edges = 0;
+
+        for (int n = 0; n < count; n++) {
+            graph.offsets[n] = edges;
+            int exits = exitsOf(map, graph.nodeCell[n], target);
+
+            for (int i = 0; i < 4; i++) {
+                if ((exits & (1 << i)) == 0) {
+                    continue;
+                }
+
+                int cell = graph.nodeCell[n];
+                int heading = i;
+                int length = 0;
+                int turnCount = 0;
+                int next = -1;
+
+                while (true) {
+                    cell += MazeMap.DY[heading] * map.width + MazeMap.DX[heading];
+                    length++;
+
+                    if (cell < 0 || cell >= map.cells.length) {
+                        break;
+                    }
+
+                    if (isNode(map, cell, start, target)) {
+                        next = graph.nodeOf(cell);
+                        break;
+                    }
+
+                    // Unexplored cell or dead end, no edge
+                    if ((map.cells[cell] & MazeMap.KNOWN) == 0) {
+                        break;
+                    }
+                    int onward = map.liveExits(cell) & ~(1 << ((heading + 2) % 4));
+                    if (onward == 0) {
+                        break;
+                    }
+                    if (Integer.numberOfTrailingZeros(onward) != heading) {
+                        turnCount++;
+                    }
+                    heading = Integer.numberOfTrailingZeros(onward);
+                }
+
+                if (next == -1) {
+                    continue;
+                }
+
+                if (edges == targets.length) {
+                    targets = Arrays.copyOf(targets, edges * 2);
+                    lengths = Arrays.copyOf(lengths, edges * 2);
+                    headings = Arrays.copyOf(headings, edges * 2);
+                    arrivals = Arrays.copyOf(arrivals, edges * 2);
+                    turns = Arrays.copyOf(turns, edges * 2);
+                }
+                targets[edges] = next;
+                lengths[edges] = length;
+                headings[edges] = (byte) i;
+                arrivals[edges] = (byte) heading;
+                turns[edges] = turnCount;
+                edges++;
+            }
+        }
+        graph.offsets[count] = edges;
+        graph.edgeCount = edges;
+        graph.edgeTarget = Arrays.copyOf(targets, edges);
+        graph.edgeLength = Arrays.copyOf(lengths, edges);
+        graph.edgeHeading = Arrays.copyOf(headings, edges);
+        graph.edgeArrival = Arrays.copyOf(arrivals, edges);
+        graph.edgeTurns = Arrays.copyOf(turns, edges);
+        return graph;
+    }
+
+    /**
+     * @param map
+     * @param cell
+     * @param start
+     * @param target
+     * @return true if the cell is a junction, crossroads, start or target. Exits into filled dead ends are ignored
+     */
+    private static boolean isNode(MazeMap map, int cell, int start, int target) {
+        if (cell == start || cell == target) {
+            return true;
+        }
+        return (map.cells[cell] & MazeMap.KNOWN) != 0 && (map.cells[cell] & MazeMap.DEAD) == 0
+            && Integer.bitCount(map.liveExits(cell)) > 2;
+    }
+
+    /**
+     * Finds the exits of a node. The target is never sensed, so its exits are taken from the known neighbours.
+     * @param map
+     * @param cell
+     * @param target
+     * @return exit mask
+     */
+    private static int exitsOf(MazeMap map, int cell, int target) {
+        if ((map.cells[cell] & MazeMap.KNOWN) != 0) {
+            return map.liveExits(cell);
+        }
+        if (cell != target) {
+            return 0;
+        }
+
+        int exits = 0;
+        for (int i = 0; i < 4; i++) {
+            int neighbour = cell + MazeMap.DY[i] * map.width + MazeMap.DX[i];
+            if (neighbour >= 0 && neighbour < map.cells.length
+                    && (map.cells[neighbour] & MazeMap.KNOWN) != 0 && (map.cells[neighbour] & MazeMap.DEAD) == 0
+                    && (map.cells[neighbour] & (1 << ((i + 2) % 4))) != 0) {
+                exits |= 1 << i;
+            }
+        }
+        return exits;
+    }
+
+    /**
+     * Find node id using cell index.
+     * @param cell
+     * @return node id, -1 if the cell is not a node
+     */
+    public int nodeOf(int cell) {
+        int index = Arrays.binarySearch(nodeCell, cell);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * Find node id using coordinates.
+     * @param x
+     * @param y
+     * @return node id, -1 if the cell is not a node
+     */
+    public int nodeOf(int x, int y) {
+        return nodeOf(y * width + x);
+    }
+
+    /**
+     * Dijkstra from a source node over corridor lengths. Results are left in pathCost and prevEdge.
+     * @param source
+     */
+    public void shortestPaths(int source) {
+        shortestPaths(source, -1);
+    }
+
+    /**
+     * Dijkstra from a source node over corridor lengths, stopping once the target is settled.
+     * Results are left in pathCost and prevEdge.
+     * @param source
+     * @param target node to stop at, -1 to search the whole graph
+     */
+    public void shortestPaths(int source, int target) {
+        pathCost = new long[nodeCount];
+        prevEdge = new int[nodeCount];
+        Arrays.fill(pathCost, Long.MAX_VALUE);
+        Arrays.fill(prevEdge, -1);
+
+        // Stale entries are skipped when popped
+        CostHeap heap = new CostHeap(nodeCount);
+        pathCost[source] = 0;
+        heap.push(0, source);
+
+        while (!heap.isEmpty()) {
+            long cost = heap.topCost();
+            int node = heap.pop();
+            if (cost != pathCost[node]) {
+                continue;
+            }
+            if (node == target) {
+                return;
+            }
+
+            for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                int next = edgeTarget[e];
+                long nextCost = cost + edgeLength[e];
+                if (nextCost < pathCost[next]) {
+                    pathCost[next] = nextCost;
+                    prevEdge[next] = e;
+                    heap.push(nextCost, next);
+                }
+            }
+        }
+    }
+
+    /**
+     * Dijkstra backwards from the target over (node, arrival heading) states, charging the cost model for corridor
+     * cells and for every turn, including the turn made when leaving a node.
+     * The graph is undirected, so the edge into a node is found through its twin leaving the node.
+     * @param target
+     * @param model
+     * @return for every state node * 4 + arrival heading, the heading to leave by, or -1 if the target is unreachable
+     */
+    public byte[] planRoute(int target, CostModel model) {
+        int states = nodeCount * 4;
+        stateCost = new long[states];
+        byte[] plan = new byte[states];
+        Arrays.fill(stateCost, Long.MAX_VALUE);
+        Arrays.fill(plan, (byte) -1);
+
+        CostHeap heap = new CostHeap(states);
+        for (int h = 0; h < 4; h++) {
+            stateCost[target * 4 + h] = 0;
+            heap.push(0, target * 4 + h);
+        }
+
+        while (!heap.isEmpty()) {
+            long cost = heap.topCost();
+            int state = heap.pop();
+            if (cost != stateCost[state]) {
+                continue;
+            }
+            int node = state / 4;
+            int arrival = state % 4;
+
+            for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                // Twin edge must arrive here with this heading
+                if ((edgeHeading[e] + 2) % 4 != arrival) {
+                    continue;
+                }
+
+                int previous = edgeTarget[e];
+                int exit = (edgeArrival[e] + 2) % 4;
+                long corridorCost = cost + (long) edgeLength[e] * model.moveCost + (long) edgeTurns[e] * model.turnCost;
+
+                for (int h = 0; h < 4; h++) {
+                    long nextCost = corridorCost + model.turnCost(h, exit);
+                    int nextState = previous * 4 + h;
+                    if (nextCost < stateCost[nextState]) {
+                        stateCost[nextState] = nextCost;
+                        plan[nextState] = (byte) exit;
+                        heap.push(nextCost, nextState);
+                    }
+                }
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Find the edge leaving a node with a heading.
+     * @param node
+     * @param heading
+     * @return edge id, -1 if there is none
+     */
+    public int edgeWithHeading(int node, int heading) {
+        for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+            if (edgeHeading[e] == heading) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the node the edge leaves from.
+     * @param edge
+     * @return node id
+     */
+    public int edgeSource(int edge) {
+        // Offsets are ascending, so the source is the last node whose first edge is not after this one
+        int low = 0;
+        int high = nodeCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= edge) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Writes the arrays to a stream.
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(nodeCount);
+        out.writeInt(edgeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            out.writeInt(nodeCell[i]);
+        }
+        for (int i = 0; i <= nodeCount; i++) {
+            out.writeInt(offsets[i]);
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            out.writeInt(edgeTarget[i]);
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            out.writeInt(edgeLength[i]);
+        }
+        out.write(edgeHeading, 0, edgeCount);
+        out.write(edgeArrival, 0, edgeCount);
+        for (int i = 0; i < edgeCount; i++) {
+            out.writeInt(edgeTurns[i]);
+        }
+    }
+
+    /**
+     * Reads arrays written by writeTo.
+     * @param in
+     * @return JunctionGraph
+     * @throws IOException
+     */
+    public static JunctionGraph readFrom(DataInputStream in) throws IOException {
+        JunctionGraph graph = new JunctionGraph();
+        graph.width = in.readInt();
+        graph.nodeCount = in.readInt();
+        graph.edgeCount = in.readInt();
+        graph.nodeCell = new int[graph.nodeCount];
+        graph.offsets = new int[graph.nodeCount + 1];
+        graph.edgeTarget = new int[graph.edgeCount];
+        graph.edgeLength = new int[graph.edgeCount];
+        graph.edgeHeading = new byte[graph.edgeCount];
+        graph.edgeArrival = new byte[graph.edgeCount];
+        graph.edgeTurns = new int[graph.edgeCount];
+        for (int i = 0; i < graph.nodeCount; i++) {
+            graph.nodeCell[i] = in.readInt();
+        }
+        for (int i = 0; i <= graph.nodeCount; i++) {
+            graph.offsets[i] = in.readInt();
+        }
+        for (int i = 0; i < graph.edgeCount; i++) {
+            graph.edgeTarget[i] = in.readInt();
+        }
+        for (int i = 0; i < graph.edgeCount; i++) {
+            graph.edgeLength[i] = in.readInt();
+        }
+        in.readFully(graph.edgeHeading);
+        in.readFully(graph.edgeArrival);
+        for (int i = 0; i < graph.edgeCount; i++) {
+            graph.edgeTurns[i] = in.readInt();
+        }
+        return graph;
+    }
+}
+
+
+class CostModel {
+    public int moveCost;
+    public int turnCost;
+    public int reverseCost;
+
+    /**
+     * @param moveCost cost of every cell moved
+     * @param turnCost cost of every 90 degree turn
+     * @param reverseCost cost of every 180 degree turn
+     * @throws IllegalArgumentException if any cost is negative, as routes are planned with Dijkstra
+     */
+    public CostModel(int moveCost, int turnCost, int reverseCost) {
+        if (moveCost < 0 || turnCost < 0 || reverseCost < 0) {
+            throw new IllegalArgumentException("Route costs cannot be negative: " + moveCost + ", " + turnCost + ", " + reverseCost);
+        }
+        this.moveCost = moveCost;
+        this.turnCost = turnCost;
+        this.reverseCost = reverseCost;
+    }
+
+    /**
+     * Reads the cost model from the grandfinale.moveCost, grandfinale.turnCost and grandfinale.reverseCost
+     * system properties. By default only moves cost, so routes have the fewest steps.
+     * @return CostModel
+     * @throws IllegalArgumentException if any cost is negative
+     */
+    public static CostModel fromProperties() {
+        return new CostModel(
+            Integer.getInteger("grandfinale.moveCost", 1),
+            Integer.getInteger("grandfinale.turnCost", 0),
+            Integer.getInteger("grandfinale.reverseCost", 0)
+        );
+    }
+
+    /**
+     * Find the cost of changing between two headings.
+     * @param from heading index 0-3
+     * @param to heading index 0-3
+     * @return 0 if the same, turnCost if 90 degrees, reverseCost if 180 degrees
+     */
+    public int turnCost(int from, int to) {
+        switch ((to - from + 4) % 4) {
+            case 0: return 0;
+            case 2: return reverseCost;
+            default: return turnCost;
+        }
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof CostModel)) {
+            return false;
+        }
+        CostModel other = (CostModel) o;
+        return moveCost == other.moveCost && turnCost == other.turnCost && reverseCost == other.reverseCost;
+    }
+
+    public int hashCode() {
+        return (moveCost * 31 + turnCost) * 31 + reverseCost;
+    }
+
+    public String toString() {
+        return "move " + moveCost + ", turn " + turnCost + ", reverse " + reverseCost;
+    }
+}
+
+
+class RunMetrics {
+    public int steps = 0;
+    public int turns = 0;
+    public int reversals = 0;
+    public long plannedCost = -1;
+    public int junctionsBefore = -1;
+    public int junctionsAfter;
+    public int cellsFilled;
+    public long endExplorationNanos = -1;
+    public boolean plannedInBackground;
+
+    // Decisions in the route code built for the run and the heap they take, -1 if none was built
+    public int routeDecisions = -1;
+    public long routeCodeBytes;
+
+    // Steps and look calls made in each RobotMode
+    public int[] modeSteps = new int[RobotMode.values().length];
+    public int[] modeLooks = new int[RobotMode.values().length];
+    public long storeBytesBefore;
+    public long storeBytesAfter;
+
+    // Exits of the map found blocked, and cells of the distance field searched again around them
+    public int blockedExits = 0;
+    public int cellsReplanned = 0;
+
+    /**
+     * Counts a step and the turn made on it.
+     * @param mode mode the step started in
+     * @param headingBefore absolute heading when the step started
+     * @param headingAfter absolute heading chosen for the step
+     */
+    public void recordStep(RobotMode mode, int headingBefore, int headingAfter) {
+        steps++;
+        modeSteps[mode.ordinal()]++;
+        switch ((headingAfter - headingBefore + 4) % 4) {
+            case 0: break;
+            case 2: reversals++; break;
+            default: turns++; break;
+        }
+    }
+
+    /**
+     * Counts a look call made while a step in the mode was being decided.
+     * @param mode
+     */
+    public void recordLook(RobotMode mode) {
+        modeLooks[mode.ordinal()]++;
+    }
+
+    /**
+     * @param model
+     * @return total cost of the run under the cost model
+     */
+    public long cost(CostModel model) {
+        return (long) steps * model.moveCost + (long) turns * model.turnCost + (long) reversals * model.reverseCost;
+    }
+
+    /**
+     * Prints out the run metrics.
+     * @param run
+     * @param model
+     */
+    public void report(int run, CostModel model) {
+        String planned = plannedCost == -1 ? "" : ", planned " + plannedCost;
+        System.out.println("Run " + run + ": " + steps + " steps, " + turns + " turns, " + reversals + " reversals, cost "
+            + cost(model) + planned + " (" + model + ")");
+
+        // Sensor calls per step in each mode
+        String sensing = "Sensing:";
+        for (RobotMode m : RobotMode.values()) {
+            if (modeSteps[m.ordinal()] != 0) {
+                sensing += String.format(" %s %.2f", m.name().toLowerCase(), (double) modeLooks[m.ordinal()] / modeSteps[m.ordinal()]);
+            }
+        }
+        System.out.println(sensing + " looks per step");
+
+        if (endExplorationNanos != -1) {
+            System.out.println("Route ready after " + endExplorationNanos / 1000 + " us on the controller thread ("
+                + (plannedInBackground ? "planned in background" : "planned on the controller thread") + ")");
+        }
+
+        if (junctionsBefore != -1) {
+            System.out.println("Dead end filling: " + cellsFilled + " cells filled, junctions " + junctionsBefore + " -> "
+                + junctionsAfter + ", junction store " + storeBytesBefore / 1024 + " KB -> " + storeBytesAfter / 1024 + " KB");
+        }
+
+        if (routeDecisions != -1) {
+            System.out.println("Route code: " + routeDecisions + " decisions in " + routeCodeBytes + " bytes");
+        }
+
+        if (blockedExits != 0) {
+            System.out.println("Walls appeared at " + blockedExits + " exits, replanned " + cellsReplanned + " cells");
+        }
+    }
+}
+
+
+class BreadcrumbStack {
+    private long[] words = new long[16];
+    private int size = 0;
+
+    /**
+     * Pushes a heading, packed 32 to a long.
+     * @param heading heading index 0-3
+     */
+    public void push(int heading) {
+        if ((size >>> 5) == words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        int shift = (size & 31) * 2;
+        words[size >>> 5] = (words[size >>> 5] & ~(3L << shift)) | ((long) heading << shift);
+        size++;
+    }
+
+    /**
+     * Removes the last heading pushed.
+     * @return heading index 0-3
+     */
+    public int pop() {
+        size--;
+        return (int) (words[size >>> 5] >>> ((size & 31) * 2)) & 3;
+    }
+
+    /**
+     * Reads a heading without removing it.
+     * @param depth 0 for the last heading pushed, 1 for the one before...
+     * @return heading index 0-3
+     */
+    public int peek(int depth) {
+        int i = size - 1 - depth;
+        return (int) (words[i >>> 5] >>> ((i & 31) * 2)) & 3;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Writes the headings to a stream.
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < (size + 31) >>> 5; i++) {
+            out.writeLong(words[i]);
+        }
+    }
+
+    /**
+     * Replaces the headings with those written by writeTo.
+     * @param in
+     * @throws IOException
+     */
+    public void readFrom(DataInputStream in) throws IOException {
+        size = in.readInt();
+        words = new long[Math.max(16, (size + 31) >>> 5)];
+        for (int i = 0; i < (size + 31) >>> 5; i++) {
+            words[i] = in.readLong();
+        }
+    }
+}
+
+
+class RouteCode {
+    private long[] words = new long[16];
+    private int size = 0;
+
+    // Absolute heading the robot faced at the start when the code was built
+    public int startHeading;
+
+    public RouteCode(int startHeading) {
+        this.startHeading = startHeading;
+    }
+
+    /**
+     * Appends the heading to leave the next decision cell by, packed 32 to a long.
+     * @param heading heading index 0-3
+     */
+    public void append(int heading) {
+        if ((size >>> 5) == words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        int shift = (size & 31) * 2;
+        words[size >>> 5] |= (long) heading << shift;
+        size++;
+    }
+
+    /**
+     * @param i
+     * @return heading index 0-3 of decision i
+     */
+    public int get(int i) {
+        return (int) (words[i >>> 5] >>> ((i & 31) * 2)) & 3;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Drops the unused end of the array once the code is complete.
+     */
+    public void trimToSize() {
+        words = Arrays.copyOf(words, (size + 31) >>> 5);
+    }
+
+    /**
+     * @return heap used by the packed decisions
+     */
+    public long estimateBytes() {
+        return 8L * words.length;
+    }
+
+    /**
+     * Writes the decisions to a stream.
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(startHeading - IRobot.NORTH);
+        out.writeInt(size);
+        for (int i = 0; i < (size + 31) >>> 5; i++) {
+            out.writeLong(words[i]);
+        }
+    }
+
+    /**
+     * Reads a code written by writeTo.
+     * @param in
+     * @return RouteCode
+     * @throws IOException
+     */
+    public static RouteCode readFrom(DataInputStream in) throws IOException {
+        RouteCode code = new RouteCode(IRobot.NORTH + in.readByte());
+        code.size = in.readInt();
+        code.words = new long[(code.size + 31) >>> 5];
+        for (int i = 0; i < code.words.length; i++) {
+            code.words[i] = in.readLong();
+        }
+        return code;
+    }
+}
+
+
+class SharedJunctionMap {
+    public final static int FREE = 0;
+    public final static int CLAIMED = 1;
+    public final static int DONE = 2;
+    private final static long PRESENT = 1L << 63;
+
+    // Open addressing table, a slot is taken by a single CAS on its key and never freed
+    private final AtomicLongArray keys;
+
+    // 2 bits of FREE, CLAIMED or DONE per exit, indexed by heading
+    private final AtomicIntegerArray exitStates;
+    private final int bits;
+    private final int mask;
+
+    /**
+     * @param capacity maximum number of junctions, the table is sized to at most half full
+     */
+    public SharedJunctionMap(int capacity) {
+        int b = 4;
+        while ((1 << b) < capacity * 2) {
+            b++;
+        }
+        bits = b;
+        mask = (1 << b) - 1;
+        keys = new AtomicLongArray(1 << b);
+        exitStates = new AtomicIntegerArray(1 << b);
+    }
+
+    private int slotOf(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - bits));
+    }
+
+    /**
+     * Records a junction using coordinates if no robot has recorded it yet.
+     * @param x
+     * @param y
+     * @return slot of the junction
+     */
+    public int insertIfAbsent(int x, int y) {
+        long key = PRESENT | ((long) x << 32) | y;
+        for (int i = slotOf(key), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            long k = keys.get(i);
+            if (k == key) {
+                return i;
+            }
+            if (k == 0) {
+                // Another robot may take the slot first, in which case it may have taken it for this junction
+                if (keys.compareAndSet(i, 0, key) || keys.get(i) == key) {
+                    return i;
+                }
+            }
+        }
+        throw new IllegalStateException("SharedJunctionMap is full");
+    }
+
+    /**
+     * Find junction using coordinates.
+     * @param x
+     * @param y
+     * @return slot of the junction, -1 if not recorded
+     */
+    public int find(int x, int y) {
+        long key = PRESENT | ((long) x << 32) | y;
+        for (int i = slotOf(key), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            long k = keys.get(i);
+            if (k == key) {
+                return i;
+            }
+            if (k == 0) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Claims an exit of a junction so no other robot explores it.
+     * @param slot
+     * @param heading heading index 0-3
+     * @return true if this call claimed the exit, false if it was already claimed or finished
+     */
+    public boolean claimExit(int slot, int heading) {
+        int shift = heading * 2;
+        while (true) {
+            int state = exitStates.get(slot);
+            if (((state >>> shift) & 3) != FREE) {
+                return false;
+            }
+            if (exitStates.compareAndSet(slot, state, state | (CLAIMED << shift))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Marks an exit of a junction as fully explored.
+     * @param slot
+     * @param heading heading index 0-3
+     */
+    public void finishExit(int slot, int heading) {
+        int shift = heading * 2;
+        while (true) {
+            int state = exitStates.get(slot);
+            int finished = (state & ~(3 << shift)) | (DONE << shift);
+            if (state == finished || exitStates.compareAndSet(slot, state, finished)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param slot
+     * @param heading heading index 0-3
+     * @return FREE, CLAIMED or DONE
+     */
+    public int exitState(int slot, int heading) {
+        return (exitStates.get(slot) >>> (heading * 2)) & 3;
+    }
+
+    /**
+     * Counts the recorded junctions. Not atomic with respect to concurrent inserts.
+     * @return number of junctions
+     */
+    public int size() {
+        int count = 0;
+        for (int i = 0; i <= mask; i++) {
+            if (keys.get(i) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
+
+
+class RoutePlan {
+    public MazeMap map;
+    public DistanceField distanceField;
+    public JunctionGraph junctionGraph;
+    public byte[] routePlan;
+    public CostModel costModel;
+    public int cellsFilled;
+
+    /**
+     * Builds the distance field, fills in dead ends, freezes the junction graph and plans the route.
+     * The map is modified by the dead end filling and is kept by the plan.
+     * @param map
+     * @param startX
+     * @param startY
+     * @param targetX
+     * @param targetY
+     * @param model
+     * @return RoutePlan, routePlan is null if the target is not connected to the known map
+     */
+    public static RoutePlan build(MazeMap map, int startX, int startY, int targetX, int targetY, CostModel model) {
+        RoutePlan plan = new RoutePlan();
+        plan.map = map;
+        plan.costModel = model;
+
+        // Flood the known map from the target
+        plan.distanceField = new DistanceField(map, targetX, targetY);
+        plan.distanceField.compute();
+
+        // Fill in dead end branches, then freeze the remaining junctions
+        plan.cellsFilled = map.fillDeadEnds(startY * map.width + startX, targetY * map.width + targetX);
+        plan.junctionGraph = JunctionGraph.freeze(map, startX, startY, targetX, targetY);
+
+        int target = plan.junctionGraph.nodeOf(targetX, targetY);
+        if (target != -1) {
+            plan.routePlan = plan.junctionGraph.planRoute(target, model);
+        }
+        return plan;
+    }
+}
+
+
+class BackgroundPlanner implements Runnable {
+    // Threads shared by the planners of every controller, which stop when there is nothing to plan
+    private final static ThreadPoolExecutor executor = createExecutor();
+
+    private final AtomicReference<MazeMap> pending = new AtomicReference<MazeMap>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile RoutePlan latest;
+
+    // Cleared once the run is over, after which snapshots are ignored
+    private volatile boolean running = true;
+
+    private int startX;
+    private int startY;
+    private int targetX;
+    private int targetY;
+    private CostModel model;
+
+    public BackgroundPlanner(int startX, int startY, int targetX, int targetY, CostModel model) {
+        this.startX = startX;
+        this.startY = startY;
+        this.targetX = targetX;
+        this.targetY = targetY;
+        this.model = model;
+    }
+
+    /**
+     * @return executor with a daemon thread per processor, each stopping after a second with nothing to plan
+     */
+    private static ThreadPoolExecutor createExecutor() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), task -> {
+                Thread thread = new Thread(task, "GrandFinale route planner");
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Hands a snapshot of the known map to a planner thread. A snapshot not yet picked up is replaced.
+     * @param snapshot copy of the map that is not modified afterwards
+     */
+    public void submit(MazeMap snapshot) {
+        if (!running) {
+            return;
+        }
+        pending.set(snapshot);
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this);
+        }
+    }
+
+    /**
+     * @return most recently completed plan, null if none
+     */
+    public RoutePlan getLatest() {
+        return latest;
+    }
+
+    /**
+     * Stops taking snapshots. One already handed over is still planned, after which the planner holds no thread.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Plans snapshots until there are none left, on a thread of the executor.
+     */
+    public void run() {
+        while (true) {
+            MazeMap snapshot = pending.getAndSet(null);
+            if (snapshot != null) {
+                latest = RoutePlan.build(snapshot, startX, startY, targetX, targetY, model);
+                continue;
+            }
+
+            // Give the thread back, unless a snapshot came in before another task could be scheduled for it
+            scheduled.set(false);
+            if (pending.get() == null || !scheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+}
+
+
+/**
+ * Hooks the harness sets with setStepRecorder to record what the controller does, see harness/StepRecording.
+ */
+interface StepRecorder {
+    /**
+     * @return true if every step has to go through controlRobot
+     */
+    boolean recordsSteps();
+
+    /**
+     * Called before a step is decided.
+     * @param robot
+     */
+    void beginStep(IRobot robot);
+
+    /**
+     * Called with the result of every look made while deciding a step.
+     * @param robot
+     * @param direction relative direction looked in
+     * @param result
+     */
+    void look(IRobot robot, int direction, int result);
+
+    /**
+     * Called once the heading for a step has been chosen, before the robot moves.
+     * @param robot
+     * @param mode ordinal of the mode the step was decided in
+     * @param exits absolute exit mask of the cell
+     */
+    void endStep(IRobot robot, int mode, int exits);
+
+    /**
+     * Called when the controller is reset.
+     */
+    void endRun();
+
+    /**
+     * Called when a step ends in a different mode from the last one reported.
+     * @param from name of the mode reported last
+     * @param to
+     * @param x
+     * @param y
+     */
+    void modeChanged(String from, String to, int x, int y);
+
+    /**
+     * Called when a junction is explored for the first time.
+     * @param x
+     * @param y
+     * @param arrivalHeading
+     */
+    void junctionRecorded(int x, int y, int arrivalHeading);
+
+    /**
+     * Called when an explored junction is reached again while exploring, which turns the robot back.
+     * @param x
+     * @param y
+     */
+    void junctionRevisited(int x, int y);
+
+    /**
+     * Called when a junction on the route has no usable exit heading, so the robot explores instead.
+     * @param x
+     * @param y
+     * @param exitHeading -1 if the junction is not known
+     */
+    void routeFallback(int x, int y, int exitHeading);
+
+    /**
+     * Called when the robot runs into a wall where the map had an exit.
+     * @param x
+     * @param y
+     * @param heading absolute heading index of the exit, 0 is north
+     * @param cellsReplanned cells of the distance field repaired around the wall
+     */
+    void wallAppeared(int x, int y, int heading, int cellsReplanned);
+}
+
+
+class RobotDataCache {
+    // Most mazes kept under one fingerprint. The fingerprint only covers the start, target and exits around the start,
+    // which in the maze environment most mazes share, so the mazes under it are told apart by what the robot senses
+    public final static int MAX_CANDIDATES = 16;
+
+    // Off unless given a budget
+    private static RobotDataCache shared = new RobotDataCache(Long.getLong("grandfinale.cacheBytes", 0));
+
+    private static class Entry {
+        public String fingerprint;
+        public RobotData data;
+        public long size;
+    }
+
+    // Access ordered over every maze, so iteration starts at the least recently used
+    private LinkedHashMap<RobotData, Entry> entries = new LinkedHashMap<RobotData, Entry>(16, 0.75f, true);
+
+    // Mazes under each fingerprint, most recently used first
+    private HashMap<String, ArrayList<Entry>> candidates = new HashMap<String, ArrayList<Entry>>();
+    private long budget;
+    private long used = 0;
+
+    public RobotDataCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return cache shared by every controller in the process, sized by the grandfinale.cacheBytes system property,
+     * which is 0 unless set
+     */
+    public static RobotDataCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Finds the mazes explored before under a fingerprint. The cached data is never modified, so it is handed out
+     * as it is, and has to be copied before being changed.
+     * @param fingerprint
+     * @return cached data, most recently used first, empty if none
+     */
+    public synchronized ArrayList<RobotData> get(String fingerprint) {
+        ArrayList<RobotData> found = new ArrayList<RobotData>();
+        ArrayList<Entry> list = candidates.get(fingerprint);
+        if (list != null) {
+            for (Entry entry : list) {
+                found.add(entry.data);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Marks a cached maze as used, moving it to the front of its fingerprint and of the eviction order.
+     * @param data as returned by get
+     */
+    public synchronized void touch(RobotData data) {
+        Entry entry = entries.get(data);
+        if (entry != null) {
+            ArrayList<Entry> list = candidates.get(entry.fingerprint);
+            list.remove(entry);
+            list.add(0, entry);
+        }
+    }
+
+    /**
+     * Caches a copy of the robot data of a maze, evicting the least recently used mazes to stay within the budget and
+     * within MAX_CANDIDATES under the fingerprint. Mazes under the fingerprint whose maps agree with it are taken to
+     * be the same maze explored before, and replaced. Data larger than the whole budget is not cached.
+     * @param fingerprint
+     * @param data
+     */
+    public void put(String fingerprint, RobotData data) {
+        if (budget == 0) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.fingerprint = fingerprint;
+        entry.data = data.copy();
+        entry.size = entry.data.estimateBytes();
+        if (entry.size > budget) {
+            return;
+        }
+
+        synchronized (this) {
+            ArrayList<Entry> list = candidates.get(fingerprint);
+            if (list != null) {
+                for (Entry old : new ArrayList<Entry>(list)) {
+                    if (old.data.map.agreesWith(entry.data.map)) {
+                        remove(old);
+                    }
+                }
+                if (list.size() == MAX_CANDIDATES) {
+                    remove(list.get(list.size() - 1));
+                }
+            }
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (used + entry.size > budget && eldest.hasNext()) {
+                Entry evicted = eldest.next();
+                eldest.remove();
+                removeCandidate(evicted);
+            }
+
+            entries.put(entry.data, entry);
+            candidates.computeIfAbsent(fingerprint, key -> new ArrayList<Entry>()).add(0, entry);
+            used += entry.size;
+        }
+    }
+
+    /**
+     * Drops a maze from the cache.
+     * @param entry
+     */
+    private void remove(Entry entry) {
+        if (entries.remove(entry.data) != null) {
+            removeCandidate(entry);
+        }
+    }
+
+    private void removeCandidate(Entry entry) {
+        ArrayList<Entry> list = candidates.get(entry.fingerprint);
+        list.remove(entry);
+        if (list.isEmpty()) {
+            candidates.remove(entry.fingerprint);
+        }
+        used -= entry.size;
+    }
+
+    /**
+     * @return approximate bytes held by the cache
+     */
+    public synchronized long getUsedBytes() {
+        return used;
+    }
+}
+
+
 class RobotData {
     public ArrayList<JunctionRecorder> passedJunctions = new ArrayList<JunctionRecorder>();
+    public MazeMap map = new MazeMap();
+    public DistanceField distanceField;
+    public JunctionGraph junctionGraph;
+
+    // Heading to leave each junction graph state by, and the cost model it was planned with
+    public byte[] routePlan;
+    public CostModel routeCostModel;
+
+    // Headings to leave the start and every junction along the planned route by, in order. Never changed once built
+    public RouteCode routeCode;
+
+    /**
+     * Copies everything a controller may change while following the route, sharing the frozen graph arrays.
+     * @return RobotData
+     */
+    public RobotData copy() {
+        RobotData data = new RobotData();
+        data.map = map.copy();
+        data.distanceField = distanceField == null ? null : distanceField.copy(data.map);
+        data.junctionGraph = junctionGraph == null ? null : junctionGraph.copy();
+        data.routePlan = routePlan == null ? null : routePlan.clone();
+        data.routeCostModel = routeCostModel;
+        data.routeCode = routeCode;
+
+        for (JunctionRecorder j : passedJunctions) {
+            JunctionRecorder junction = new JunctionRecorder(j.x, j.y, j.arrivalHeading);
+            junction.exitHeading = j.exitHeading;
+            junction.isVisited = j.isVisited;
+            data.passedJunctions.add(junction);
+        }
+        return data;
+    }
+
+    /**
+     * Writes the robot data to a stream. The distance field and route plan are not written, as they are rebuilt from
+     * the map and junction graph by readFrom.
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        map.writeTo(out);
+
+        out.writeInt(passedJunctions.size());
+        for (JunctionRecorder j : passedJunctions) {
+            out.writeInt(j.x);
+            out.writeInt(j.y);
+            out.writeShort(j.arrivalHeading);
+            out.writeShort(j.exitHeading);
+            out.writeBoolean(j.isVisited);
+        }
+
+        out.writeBoolean(distanceField != null);
+        out.writeBoolean(junctionGraph != null);
+        if (junctionGraph != null) {
+            junctionGraph.writeTo(out);
+        }
+        out.writeBoolean(routeCostModel != null);
+        if (routeCostModel != null) {
+            out.writeInt(routeCostModel.moveCost);
+            out.writeInt(routeCostModel.turnCost);
+            out.writeInt(routeCostModel.reverseCost);
+        }
+        out.writeBoolean(routeCode != null);
+        if (routeCode != null) {
+            routeCode.writeTo(out);
+        }
+    }
+
+    /**
+     * Reads robot data written by writeTo, flooding the distance field again and replanning the route over the
+     * junction graph.
+     * @param in
+     * @param targetX
+     * @param targetY
+     * @return RobotData
+     * @throws IOException
+     */
+    public static RobotData readFrom(DataInputStream in, int targetX, int targetY) throws IOException {
+        RobotData data = new RobotData();
+        data.map = MazeMap.readFrom(in);
+
+        int junctions = in.readInt();
+        data.passedJunctions.ensureCapacity(junctions);
+        for (int i = 0; i < junctions; i++) {
+            int x = in.readInt();
+            int y = in.readInt();
+            JunctionRecorder junction = new JunctionRecorder(x, y, in.readShort());
+            junction.exitHeading = in.readShort();
+            junction.isVisited = in.readBoolean();
+            data.passedJunctions.add(junction);
+        }
+
+        if (in.readBoolean()) {
+            data.distanceField = new DistanceField(data.map, targetX, targetY);
+            data.distanceField.compute();
+        }
+        if (in.readBoolean()) {
+            data.junctionGraph = JunctionGraph.readFrom(in);
+        }
+        if (in.readBoolean()) {
+            data.routeCostModel = new CostModel(in.readInt(), in.readInt(), in.readInt());
+        }
+        if (data.junctionGraph != null && data.routeCostModel != null) {
+            int target = data.junctionGraph.nodeOf(targetX, targetY);
+            if (target != -1) {
+                data.routePlan = data.junctionGraph.planRoute(target, data.routeCostModel);
+            }
+        }
+        if (in.readBoolean()) {
+            data.routeCode = RouteCode.readFrom(in);
+        }
+        return data;
+    }
+
+    /**
+     * @return approximate heap used by the robot data
+     */
+    public long estimateBytes() {
+        long bytes = map.cells.length + junctionStoreBytes();
+        bytes += distanceField == null ? 0 : distanceField.estimateBytes();
+        bytes += junctionGraph == null ? 0 : junctionGraph.estimateBytes();
+        bytes += routePlan == null ? 0 : routePlan.length;
+        bytes += routeCode == null ? 0 : routeCode.estimateBytes();
+        return bytes;
+    }
+
+    /**
+     * Drops the records of junctions that have been filled in as dead ends.
+     */
+    public void pruneJunctions() {
+        passedJunctions.removeIf(j -> map.isDead(j.x, j.y));
+        passedJunctions.trimToSize();
+    }
+
+    /**
+     * Estimates the heap used by the junction records, assuming 32 bytes per JunctionRecorder and a 4 byte
+     * compressed reference to it in the list.
+     * @return bytes
+     */
+    public long junctionStoreBytes() {
+        return passedJunctions.size() * 36L;
+    }
+
+    /**
+     * Find junction using coordinates.
+     * @param x
+     * @param y
+     * @return JunctionRecorder if found, else null
+     */
+    public JunctionRecorder searchJunction(int x, int y) {
+        for (JunctionRecorder j : passedJunctions) {
+            if (j.x == x && j.y == y) {
+                return j;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records junction using coordinates and arrival heading if not already recorded.
+     * @param x
+     * @param y
+     * @param heading
+     * @return recorded JunctionRecorder obj
+     */
+    public JunctionRecorder recordJunction(int x, int y, int heading) {
+        // Test if junction has already been recorded
+        JunctionRecorder junction = searchJunction(x, y);
+        if (junction != null) {
+            return junction;
+        }
+
+        // Create and record new junction
+        JunctionRecorder newJunction = new JunctionRecorder(x, y, heading);
+        passedJunctions.add(newJunction);
+        return newJunction;
+    }
+
+    /**
+     * Sets the exit heading of a junction using coordinates.
+     * @param x
+     * @param y
+     * @param heading
+     */
+    public void setExitHeading(int x, int y, int heading) {
+        JunctionRecorder junction = searchJunction(x, y);
+        junction.exitHeading = heading;
+    }
+
+    /**
+     * Sets the exit heading of a junction.
+     * @param junction
+     * @param heading
+     */
+    public void setExitHeading(JunctionRecorder junction, int heading) {
+        junction.exitHeading = heading;
+    }
+
+    /**
+     * Find arrival heading of a junction using coordinates.
+     * @param x
+     * @param y
+     * @return int arrivalHeading
+     */
+    public int getArrivalHeading(int x, int y) {
+        JunctionRecorder junction = searchJunction(x, y);
+
+        if (junction == null) {
+            return -1;
+        }
+
+        return junction.arrivalHeading;
+    }
+
+    /**
+     * Find exit heading of a junction using coordinates.
+     * @param x
+     * @param y
+     * @return
+     */
+    public int getExitHeading(int x, int y) {
+        JunctionRecorder junction = searchJunction(x, y);
+
+        if (junction == null) {
+            return -1;
+        }
+
+        return junction.exitHeading;
+    }
+}
+
+
+enum RobotMode {
+    EXPLORE,
+    BACKTRACK,
+    ROUTE
+}
+
+
+public class GrandFinale {
+    private final static int[] directions = {IRobot.AHEAD, IRobot.BEHIND, IRobot.LEFT, IRobot.RIGHT};
+
+    // Header of a checkpoint blob
+    public final static int CHECKPOINT_MAGIC = 0x4746434B;  // "GFCK"
+    public final static int CHECKPOINT_VERSION = 1;
+    private RobotData robotData;
+    private int stepCounter = 0;
+    private RobotMode mode = RobotMode.EXPLORE;
+    private int startX;
+    private int startY;
+    private int targetX;
+    private int targetY;
+    private int runCounter = 0;
+    private CostModel configuredCostModel;
+    private CostModel costModel = CostModel.fromProperties();
+    private RunMetrics metrics = new RunMetrics();
+    private BreadcrumbStack breadcrumbs = new BreadcrumbStack();
+    private SharedJunctionMap sharedMap;
+    private BackgroundPlanner planner;
+    private int plannedKnownCells = 0;
+    private String mazeFingerprint;
+    private boolean verifyRoute = false;
+    private RobotData sensedData;
+
+    // Cached maze being followed, and the others under the same fingerprint not yet ruled out, as held by the cache
+    private RobotData cachedData;
+    private ArrayList<RobotData> cacheCandidates = new ArrayList<RobotData>();
+    private RobotMode stepMode = RobotMode.EXPLORE;
+    private RobotMode reportedMode = RobotMode.EXPLORE;
+    private int collisions = 0;
+
+    // Scratch buffers of frontierHeading, grown with the map, and the number of the last search through them
+    private int[] frontierQueue = new int[0];
+    private byte[] frontierFirst = new byte[0];
+    private int[] frontierStamp = new int[0];
+    private int frontierSearch = 0;
+
+    // Next decision of the route code to take, -1 when the route is not being followed by its code
+    private int routeDecision = -1;
+
+    // Headings written by the last controlRobotBatch and not yet reported taken, the heading before them, and the
+    // route decision after each
+    private int[] batchMoves;
+    private int batchCount = 0;
+    private int batchHeading;
+    private int[] batchDecisions = new int[0];
+    private StepRecorder recorder;
+    private boolean recordSteps = false;
+    
+    /**
+     * Called when run is reset.
+     */
+    public void reset() {
+        // A cached route that reached the target belongs to this maze
+        if (verifyRoute && stepCounter != 0) {
+            RobotDataCache.getShared().touch(cachedData);
+        }
+        verifyRoute = false;
+        sensedData = null;
+        cachedData = null;
+        cacheCandidates.clear();
+
+        // Nothing more is planned once the run is over. The latest plan is still taken at the start of the next run
+        if (planner != null) {
+            planner.stop();
+        }
+
+        // Report the run that has just finished
+        if (stepCounter != 0) {
+            metrics.report(runCounter, costModel);
+            runCounter++;
+        }
+
+        if (recorder != null) {
+            recorder.endRun();
+        }
+
+        metrics = new RunMetrics();
+        stepCounter = 0;
+    }
+
+    /**
+     * Shares a junction map with other robots exploring the same maze. Exits claimed by another robot are not explored.
+     * @param map
+     */
+    public void setSharedMap(SharedJunctionMap map) {
+        sharedMap = map;
+    }
+
+    /**
+     * Records what the controller does from here on.
+     * @param recorder null to stop recording
+     */
+    public void setStepRecorder(StepRecorder recorder) {
+        this.recorder = recorder;
+        recordSteps = recorder != null && recorder.recordsSteps();
+    }
+
+    /**
+     * Sets the cost model used to plan routes from the next run onwards.
+     * If never set, the cost model is read from system properties at the start of every run.
+     * @param model
+     */
+    public void setCostModel(CostModel model) {
+        configuredCostModel = model;
+    }
+
+    /**
+     * Snapshots everything the controller knows about the maze and where it is in the current run, so that a batch
+     * job can be stopped and resumed, or an exploration forked, by restoring it into new controllers. The map is
+     * written as one block and the junctions, graph and route code as packed arrays; the distance field and route
+     * plan are rebuilt from them on restore. The cost model of this run and any set with setCostModel are included,
+     * so a restored controller plans as this one would. Run metrics, Math.random and anything attached from outside
+     * (recorder, shared map) are not included.
+     * @return checkpoint blob
+     * @throws IOException
+     */
+    public byte[] checkpoint() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(CHECKPOINT_MAGIC);
+        out.writeInt(CHECKPOINT_VERSION);
+
+        out.writeInt(stepCounter);
+        out.writeInt(runCounter);
+        out.writeByte(mode.ordinal());
+        out.writeInt(startX);
+        out.writeInt(startY);
+        out.writeInt(targetX);
+        out.writeInt(targetY);
+        out.writeInt(collisions);
+        out.writeInt(routeDecision);
+        out.writeInt(costModel.moveCost);
+        out.writeInt(costModel.turnCost);
+        out.writeInt(costModel.reverseCost);
+        out.writeBoolean(configuredCostModel != null);
+        if (configuredCostModel != null) {
+            out.writeInt(configuredCostModel.moveCost);
+            out.writeInt(configuredCostModel.turnCost);
+            out.writeInt(configuredCostModel.reverseCost);
+        }
+        out.writeUTF(mazeFingerprint == null ? "" : mazeFingerprint);
+        breadcrumbs.writeTo(out);
+
+        out.writeBoolean(robotData != null);
+        if (robotData != null) {
+            robotData.writeTo(out);
+        }
+        out.writeBoolean(verifyRoute);
+        if (verifyRoute) {
+            sensedData.writeTo(out);
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replaces the state of the controller with a checkpoint, to carry on from the step it was taken at.
+     * A background planner is only made again if the checkpoint was taken part way through exploring the first run,
+     * and holds no thread until the next snapshot of the map is handed to it.
+     * @param blob checkpoint from checkpoint()
+     * @throws IOException if the blob is not a checkpoint
+     */
+    public void restore(byte[] blob) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(blob));
+        if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+            throw new IOException("Not a version " + CHECKPOINT_VERSION + " checkpoint");
+        }
+        if (planner != null) {
+            planner.stop();
+            planner = null;
+        }
+
+        stepCounter = in.readInt();
+        runCounter = in.readInt();
+        mode = RobotMode.values()[in.readByte()];
+        startX = in.readInt();
+        startY = in.readInt();
+        targetX = in.readInt();
+        targetY = in.readInt();
+        collisions = in.readInt();
+        routeDecision = in.readInt();
+        costModel = new CostModel(in.readInt(), in.readInt(), in.readInt());
+        configuredCostModel = in.readBoolean() ? new CostModel(in.readInt(), in.readInt(), in.readInt()) : null;
+        mazeFingerprint = in.readUTF();
+        if (mazeFingerprint.isEmpty()) {
+            mazeFingerprint = null;
+        }
+        breadcrumbs.readFrom(in);
+
+        robotData = in.readBoolean() ? RobotData.readFrom(in, targetX, targetY) : null;
+        verifyRoute = in.readBoolean();
+        sensedData = verifyRoute ? RobotData.readFrom(in, targetX, targetY) : null;
+
+        stepMode = mode;
+        reportedMode = mode;
+        metrics = new RunMetrics();
+
+        // Plan in the background again if still exploring the first run. Between runs there is nothing left to plan
+        if (stepCounter != 0 && (mode == RobotMode.EXPLORE || mode == RobotMode.BACKTRACK) && robotData != null
+                && robotData.junctionGraph == null && !"false".equals(System.getProperty("grandfinale.backgroundPlanner"))) {
+            planner = new BackgroundPlanner(startX, startY, targetX, targetY, costModel);
+            plannedKnownCells = 0;
+        }
+    }
+
+    /**
+     * Handles event where a new maze is generated.
+     */
+    private void newMaze() {
+        verifyRoute = false;
+        if (planner != null) {
+            planner.stop();
+            planner = null;
+        }
+        robotData = new RobotData();
+        mode = RobotMode.EXPLORE;
+        runCounter = 0;
+        reset();
+    }
+    
+    /**
+     * Called each step.
+     * @param robot
+     */
+    public void controlRobot(IRobot robot) {
+        if (recordSteps) {
+            recorder.beginStep(robot);
+        }
+
+        // If it is a new maze
+        if (stepCounter == 0) {
+            // Set start coordinates
+            startX = robot.getLocation().x;
+            startY = robot.getLocation().y;
+            targetX = robot.getTargetLocation().x;
+            targetY = robot.getTargetLocation().y;
+            costModel = configuredCostModel != null ? configuredCostModel : CostModel.fromProperties();
+            breadcrumbs.clear();
+            collisions = robot.getCollisions();
+
+            if (robot.getRuns() == 0) {
+                newMaze();
+
+                // Skip exploring if this maze has been solved by another controller
+                mazeFingerprint = fingerprint(robot);
+                cacheCandidates = RobotDataCache.getShared().get(mazeFingerprint);
+                if (!cacheCandidates.isEmpty()) {
+                    cachedData = cacheCandidates.remove(0);
+                    robotData = cachedData.copy();
+                    sensedData = new RobotData();
+                    mode = RobotMode.ROUTE;
+                    verifyRoute = true;
+                } else if (!"false".equals(System.getProperty("grandfinale.backgroundPlanner"))) {
+                    // Plan in the background while exploring, unless disabled
+                    planner = new BackgroundPlanner(startX, startY, robot.getTargetLocation().x, robot.getTargetLocation().y, costModel);
+                    plannedKnownCells = 0;
+                }
+            } else {  // robot.getRuns() > 0
+                // Exploration has finished, build the route structures once
+                if (robotData.junctionGraph == null) {
+                    endExploration(robot);
+                }
+
+                // Replan if the cost model has changed since the route was planned
+                if (!costModel.equals(robotData.routeCostModel)) {
+                    planRoute(robot);
+                } else if (robotData.routeCode != null && robotData.routeCode.startHeading != robot.getHeading()) {
+                    // Starting another way round can change the cheapest route when turns cost
+                    followRoutePlan(robot);
+                }
+
+                // Switch to route mode if not first run
+                mode = RobotMode.ROUTE;
+            }
+
+            boolean coded = robotData.routeCode != null && robotData.routeCode.startHeading == robot.getHeading();
+            routeDecision = mode == RobotMode.ROUTE && coded ? 0 : -1;
+        }
+
+        // Record the exits of cells not seen before
+        stepMode = mode;
+        int x = robot.getLocation().x;
+        int y = robot.getLocation().y;
+        if (verifyRoute) {
+            verifyCachedCell(robot, x, y);
+        }
+
+        // Running into a wall means the maze has changed since the cell was mapped
+        int collided = robot.getCollisions() - collisions;
+        collisions = robot.getCollisions();
+        if (collided != 0 && robotData.map.isKnown(x, y)) {
+            wallsAppeared(robot, x, y);
+        }
+        if (!robotData.map.isKnown(x, y)) {
+            robotData.map.recordCell(x, y, nonwallExitMask(robot));
+
+            if (robotData.distanceField != null) {
+                robotData.distanceField.cellLearned(x, y);
+            }
+
+            // Replan whenever the known map has doubled since the last snapshot
+            if (planner != null && robotData.map.knownCells >= 2 * plannedKnownCells) {
+                submitSnapshot();
+            }
+        }
+
+        // Explore, backtrack or follow route depending on the mode
+        int headingBefore = robot.getHeading();
+        if (mode == RobotMode.EXPLORE) {
+            explorerControl(robot);
+        } else if (mode == RobotMode.BACKTRACK) {
+            backtrackControl(robot);
+        } else {  // mode == RobotMode.ROUTE
+            routeControl(robot);
+        }
+        metrics.recordStep(stepMode, headingBefore, robot.getHeading());
+
+        // Leave a breadcrumb for every move away from the start, and pick one up when exploring turns back
+        if (stepMode == RobotMode.EXPLORE && mode == RobotMode.BACKTRACK) {
+            if (!breadcrumbs.isEmpty()) {
+                popBreadcrumb(robot.getLocation().x, robot.getLocation().y);
+            }
+        } else if (mode == RobotMode.EXPLORE) {
+            breadcrumbs.push(robot.getHeading() - IRobot.NORTH);
+        }
+
+        if (mode != reportedMode) {
+            reportModeChange(x, y);
+        }
+
+        // About to reach the target, so the known map is final. Plan it before the next run starts
+        if (planner != null && x + MazeMap.DX[robot.getHeading() - IRobot.NORTH] == robot.getTargetLocation().x
+                && y + MazeMap.DY[robot.getHeading() - IRobot.NORTH] == robot.getTargetLocation().y) {
+            submitSnapshot();
+        }
+
+        if (recordSteps) {
+            recorder.endStep(robot, stepMode.ordinal(), robotData.map.getExits(x, y));
+        }
+
+        // Increment stepCounter
+        stepCounter++;
+    }
+
+    /**
+     * Called instead of controlRobot by headless environments that can take several steps per call.
+     * Decides this step as controlRobot does. Then, while the steps after it are already decided by the known map, as
+     * when following the route or retracing breadcrumbs, writes their headings so the environment can take them
+     * without calling back. Nothing is written while the map is being verified or steps are recorded, or exploring
+     * with a shared map, as those need every step to go through controlRobot.
+     * Writing the headings changes nothing; the environment reports how many it took with batchTaken, which moves the
+     * controller on by those steps.
+     * @param robot
+     * @param moves filled with the absolute headings of the steps after this one
+     * @return number of headings written, 0 if the next step has to be decided by sensing
+     */
+    public int controlRobotBatch(IRobot robot, int[] moves) {
+        controlRobot(robot);
+        batchCount = 0;
+        if (mode != stepMode || verifyRoute || recordSteps || sharedMap != null) {
+            return 0;
+        }
+
+        int x = robot.getLocation().x;
+        int y = robot.getLocation().y;
+        int targetX = robot.getTargetLocation().x;
+        int targetY = robot.getTargetLocation().y;
+        int heading = robot.getHeading() - IRobot.NORTH;
+        int decisionBefore = routeDecision;
+        int count = 0;
+        if (batchDecisions.length < moves.length) {
+            batchDecisions = new int[moves.length];
+        }
+
+        while (count < moves.length && (robotData.map.getExits(x, y) & (1 << heading)) != 0) {
+            x += MazeMap.DX[heading];
+            y += MazeMap.DY[heading];
+            if (x == targetX && y == targetY) {
+                break;  // The run ends here
+            }
+
+            int next = -1;
+            if (mode == RobotMode.ROUTE) {
+                next = knownRouteHeading(x, y, heading);
+            } else if (mode == RobotMode.BACKTRACK && unexploredExits(x, y) == 0 && count < breadcrumbs.size()) {
+                next = (breadcrumbs.peek(count) + 2) % 4;
+            }
+            if (next == -1) {
+                break;
+            }
+
+            batchDecisions[count] = routeDecision;
+            moves[count++] = IRobot.NORTH + next;
+            heading = next;
+        }
+
+        // Taken back to where it was until the environment says how many steps it took
+        routeDecision = decisionBefore;
+        batchHeading = robot.getHeading();
+        batchMoves = moves;
+        batchCount = count;
+        return count;
+    }
 
     /**
-     * Find junction using coordinates.
-     * @param x
-     * @param y
-     * @return JunctionRecorder if found, else null
+     * Moves the controller on by the steps the environment took of those written by the last controlRobotBatch:
+     * counting them, taking the route decisions made for them and picking up their breadcrumbs. Headings after a step
+     * into a new wall are not taken.
+     * @param taken number of headings taken, from the first
      */
-    public JunctionRecorder searchJunction(int x, int y) {
-        for (JunctionRecorder j : passedJunctions) {
-            if (j.x == x && j.y == y) {
-                return j;
+    public void batchTaken(int taken) {
+        taken = Math.min(taken, batchCount);
+        int heading = batchHeading;
+        for (int i = 0; i < taken; i++) {
+            metrics.recordStep(mode, heading, batchMoves[i]);
+            heading = batchMoves[i];
+        }
+        if (taken != 0 && mode == RobotMode.ROUTE) {
+            routeDecision = batchDecisions[taken - 1];
+        } else if (mode == RobotMode.BACKTRACK) {
+            for (int i = 0; i < taken; i++) {
+                breadcrumbs.pop();
             }
         }
-        return null;
+        stepCounter += taken;
+        batchCount = 0;
     }
 
     /**
-     * Records junction using coordinates and arrival heading if not already recorded.
+     * Reports a change of mode since the last one reported to the recorder.
      * @param x
      * @param y
-     * @param heading
-     * @return recorded JunctionRecorder obj
      */
-    public JunctionRecorder recordJunction(int x, int y, int heading) {
-        // Test if junction has already been recorded
-        JunctionRecorder junction = searchJunction(x, y);
-        if (junction != null) {
-            return junction;
+    private void reportModeChange(int x, int y) {
+        if (recorder != null) {
+            recorder.modeChanged(reportedMode.name(), mode.name(), x, y);
         }
-
-        // Create and record new junction
-        JunctionRecorder newJunction = new JunctionRecorder(x, y, heading);
-        passedJunctions.add(newJunction);
-        return newJunction;
+        reportedMode = mode;
     }
 
     /**
-     * Sets the exit heading of a junction using coordinates.
-     * @param x
-     * @param y
-     * @param heading
+     * Hands a copy of the known map to the background planner.
      */
-    public void setExitHeading(int x, int y, int heading) {
-        JunctionRecorder junction = searchJunction(x, y);
-        junction.exitHeading = heading;
+    private void submitSnapshot() {
+        plannedKnownCells = robotData.map.knownCells;
+        planner.submit(robotData.map.copy());
     }
 
     /**
-     * Sets the exit heading of a junction.
-     * @param junction
-     * @param heading
+     * Takes the route structures planned from the final known map. If the background planner has not finished
+     * planning it, or is disabled, they are built now.
+     * @param robot
      */
-    public void setExitHeading(JunctionRecorder junction, int heading) {
-        junction.exitHeading = heading;
+    private void endExploration(IRobot robot) {
+        long startTime = System.nanoTime();
+        RoutePlan plan = null;
+        if (planner != null) {
+            plan = planner.getLatest();
+            planner.stop();
+            planner = null;
+        }
+        metrics.plannedInBackground = plan != null && plan.map.knownCells == robotData.map.knownCells && costModel.equals(plan.costModel);
+        if (!metrics.plannedInBackground) {
+            plan = RoutePlan.build(robotData.map, startX, startY, robot.getTargetLocation().x, robot.getTargetLocation().y, costModel);
+        }
+
+        robotData.map = plan.map;
+        robotData.distanceField = plan.distanceField;
+        robotData.junctionGraph = plan.junctionGraph;
+        robotData.routePlan = plan.routePlan;
+        robotData.routeCostModel = plan.costModel;
+
+        // Drop the junctions of filled dead ends
+        metrics.junctionsBefore = robotData.passedJunctions.size();
+        metrics.storeBytesBefore = robotData.junctionStoreBytes();
+        metrics.cellsFilled = plan.cellsFilled;
+        robotData.pruneJunctions();
+        metrics.junctionsAfter = robotData.passedJunctions.size();
+        metrics.storeBytesAfter = robotData.junctionStoreBytes();
+
+        followRoutePlan(robot);
+        metrics.endExplorationNanos = System.nanoTime() - startTime;
+
+        RobotDataCache.getShared().put(mazeFingerprint, robotData);
     }
 
     /**
-     * Find arrival heading of a junction using coordinates.
+     * Checks a cell against the map of a cached maze with the same fingerprint, recording it in a map of its own. If
+     * they disagree the cached map is from a different maze, so the route of the next maze under the fingerprint that
+     * agrees with every cell sensed so far, and leads to the target from here, is followed instead. If none does, the
+     * maze is explored from here with the cells sensed so far. Mazes ruled out stay cached, as they can come back.
+     * @param robot
      * @param x
      * @param y
-     * @return int arrivalHeading
      */
-    public int getArrivalHeading(int x, int y) {
-        JunctionRecorder junction = searchJunction(x, y);
+    private void verifyCachedCell(IRobot robot, int x, int y) {
+        int exits = nonwallExitMask(robot);
+        if (!sensedData.map.isKnown(x, y)) {
+            sensedData.map.recordCell(x, y, exits);
+        }
+        if (robotData.map.getExits(x, y) == exits) {
+            return;
+        }
 
-        if (junction == null) {
-            return -1;
+        breadcrumbs.clear();
+        routeDecision = -1;
+        while (!cacheCandidates.isEmpty()) {
+            RobotData candidate = cacheCandidates.remove(0);
+            if (candidate.distanceField != null && candidate.distanceField.getDistance(x, y) != DistanceField.UNREACHED
+                    && sensedData.map.agreesWith(candidate.map)) {
+                cachedData = candidate;
+                robotData = candidate.copy();
+                return;
+            }
         }
 
-        return junction.arrivalHeading;
+        verifyRoute = false;
+        cachedData = null;
+        robotData = sensedData;
+        sensedData = null;
+        mode = RobotMode.EXPLORE;
+        stepMode = mode;
     }
 
     /**
-     * Find exit heading of a junction using coordinates.
+     * Corrects the map of a cell after running into a wall where it had an exit, as in a maze changing between runs.
+     * Every exit of the cell found blocked is removed, and only the part of the distance field that depended on it is
+     * searched again, which the rest of the run follows. The junction graph and route plan are rebuilt from the
+     * corrected map when the next run starts. If the known map no longer reaches the target, or the breadcrumbs no
+     * longer lead back, the robot backtracks to the nearest unexplored exit instead.
+     * @param robot
      * @param x
      * @param y
-     * @return
      */
-    public int getExitHeading(int x, int y) {
-        JunctionRecorder junction = searchJunction(x, y);
-
-        if (junction == null) {
-            return -1;
+    private void wallsAppeared(IRobot robot, int x, int y) {
+        int blocked = robotData.map.getExits(x, y) & ~nonwallExitMask(robot);
+        if (blocked == 0) {
+            return;
         }
 
-        return junction.exitHeading;
-    }
-}
+        if (mode == RobotMode.EXPLORE && !breadcrumbs.isEmpty()) {
+            // Dropped for the move that failed
+            breadcrumbs.pop();
+        } else if (mode == RobotMode.BACKTRACK) {
+            breadcrumbs.clear();
+        }
 
+        for (int i = 0; i < 4; i++) {
+            if ((blocked & (1 << i)) == 0) {
+                continue;
+            }
+            robotData.map.removeExit(x, y, i);
+            int cellsReplanned = robotData.distanceField == null ? 0 : robotData.distanceField.exitRemoved(x, y, i);
+            metrics.blockedExits++;
+            metrics.cellsReplanned += cellsReplanned;
+
+            JunctionRecorder junction = robotData.searchJunction(x, y);
+            if (junction != null && junction.exitHeading == IRobot.NORTH + i) {
+                junction.exitHeading = -1;
+            }
 
-enum RobotMode {
-    EXPLORE,
-    BACKTRACK,
-    ROUTE
-}
+            if (recorder != null) {
+                recorder.wallAppeared(x, y, i, cellsReplanned);
+            }
+        }
 
+        if (robotData.junctionGraph != null) {
+            robotData.routePlan = null;
+            robotData.junctionGraph = null;
+        }
+        robotData.routeCode = null;
+        routeDecision = -1;
+        if (mode == RobotMode.ROUTE && (robotData.distanceField == null || robotData.distanceField.getDistance(x, y) == DistanceField.UNREACHED)) {
+            breadcrumbs.clear();
+            mode = RobotMode.BACKTRACK;
+            stepMode = mode;
+        }
+    }
 
-public class GrandFinale {
-    private final static int[] directions = {IRobot.AHEAD, IRobot.BEHIND, IRobot.LEFT, IRobot.RIGHT};
-    private RobotData robotData;
-    private int stepCounter = 0;
-    private RobotMode mode = RobotMode.EXPLORE;
-    private int startX;
-    private int startY;
-    
     /**
-     * Called when run is reset.
+     * Identifies a maze by its start, target and the exits around the start. Mazes sharing a fingerprint are told
+     * apart while following a cached route, see verifyCachedCell.
+     * @param robot
+     * @return fingerprint
      */
-    public void reset() {
-        stepCounter = 0;
+    private String fingerprint(IRobot robot) {
+        return robot.getLocation().x + "," + robot.getLocation().y + "->" + robot.getTargetLocation().x + ","
+            + robot.getTargetLocation().y + "/" + nonwallExitMask(robot);
     }
 
     /**
-     * Handles event where a new maze is generated.
+     * Plans the cheapest route under the cost model from every junction graph state.
+     * @param robot
      */
-    private void newMaze() {
-        robotData = new RobotData();
-        mode = RobotMode.EXPLORE;
-        reset();
+    private void planRoute(IRobot robot) {
+        JunctionGraph graph = robotData.junctionGraph;
+        robotData.routeCostModel = costModel;
+        robotData.routePlan = null;
+
+        int target = graph.nodeOf(robot.getTargetLocation().x, robot.getTargetLocation().y);
+        if (target != -1) {
+            robotData.routePlan = graph.planRoute(target, costModel);
+        }
+        followRoutePlan(robot);
     }
-    
+
     /**
-     * Called each step.
+     * Encodes the route plan from the start as a route code: the heading to leave the start by, then the heading to
+     * leave every cell with more than two exits by, in the order the route meets them. Everywhere else on the route
+     * there is only one way on. The code is left null if the route does not reach the target.
      * @param robot
      */
-    public void controlRobot(IRobot robot) {
-
-        // If it is a new maze
-        if (stepCounter == 0) {
-            // Set start coordinates
-            startX = robot.getLocation().x;
-            startY = robot.getLocation().y;
+    private void followRoutePlan(IRobot robot) {
+        robotData.routeCode = null;
+        JunctionGraph graph = robotData.junctionGraph;
+        MazeMap map = robotData.map;
+        int targetX = robot.getTargetLocation().x;
+        int targetY = robot.getTargetLocation().y;
+        int node = graph.nodeOf(startX, startY);
+        if (robotData.routePlan == null || node == -1) {
+            return;
+        }
 
-            if (robot.getRuns() == 0) {
-                newMaze();
-            } else {  // robot.getRuns() > 0
-                // Switch to route mode if not first run
-                mode = RobotMode.ROUTE;
+        int state = node * 4 + robot.getHeading() - IRobot.NORTH;
+        metrics.plannedCost = graph.stateCost[state] == Long.MAX_VALUE ? -1 : graph.stateCost[state];
+
+        // Walk the route cell by cell, through corridors with dead ends filled in
+        RouteCode code = new RouteCode(robot.getHeading());
+        int x = startX;
+        int y = startY;
+        int heading = robotData.routePlan[state];
+        for (int steps = 0; heading != -1 && steps < map.knownCells; steps++) {
+            if (steps == 0 || Integer.bitCount(map.getExits(x, y)) > 2) {
+                code.append(heading);
+            }
+            x += MazeMap.DX[heading];
+            y += MazeMap.DY[heading];
+            if (x == targetX && y == targetY) {
+                code.trimToSize();
+                robotData.routeCode = code;
+                metrics.routeDecisions = code.size();
+                metrics.routeCodeBytes = code.estimateBytes();
+                return;
             }
-        }
 
-        // Explore, backtrack or follow route depending on the mode
-        if (mode == RobotMode.EXPLORE) {
-            explorerControl(robot);
-        } else if (mode == RobotMode.BACKTRACK) {
-            backtrackControl(robot);
-        } else {  // mode == RobotMode.ROUTE
-            routeControl(robot);
+            node = graph.nodeOf(x, y);
+            if (node != -1) {
+                heading = robotData.routePlan[node * 4 + heading];
+            } else {
+                int onward = map.liveExits(y * map.width + x) & ~(1 << ((heading + 2) % 4));
+                heading = Integer.bitCount(onward) == 1 ? Integer.numberOfTrailingZeros(onward) : -1;
+            }
         }
-
-        // Increment stepCounter
-        stepCounter++;
     }
 
     /**
-     * Controller for when the robot is exploring.
+     * Controller for when the robot is exploring. The cell has always been recorded in the map by now, so corridors
+     * and dead ends are decided from its exits without sensing; only junctions look for unexplored passages.
      * @param robot
      */
     private void explorerControl(IRobot robot) {
-        int exits = nonwallExits(robot);
-
-        if (exits == 0 || exits == 1) {  // Deadend
+        int x = robot.getLocation().x;
+        int y = robot.getLocation().y;
+        int exits = relativeExits(robotData.map.getExits(x, y), robot.getHeading());
 
-            // Set mode to backtrack if it is not the first step
+        if (Integer.bitCount(exits) <= 1) {  // Deadend
             if (stepCounter != 0) {
+                // Set mode to backtrack and go back
                 mode = RobotMode.BACKTRACK;
+                robot.face(IRobot.BEHIND);
+            } else if (exits != 0) {
+                // Face the only way out
+                robot.face(IRobot.AHEAD + Integer.numberOfTrailingZeros(exits));
             }
 
-            deadEndControl(robot);
-
-        } else if (exits > 2) {  // Junction or crossroads
+        } else if (Integer.bitCount(exits) > 2) {  // Junction or crossroads
             // Record junction data
-            JunctionRecorder junction = robotData.recordJunction(robot.getLocation().x, robot.getLocation().y, robot.getHeading());
+            JunctionRecorder junction = robotData.recordJunction(x, y, robot.getHeading());
 
             exploreJunctionControl(robot, junction);
 
             robotData.setExitHeading(junction, robot.getHeading());
 
-        } else if (exits == 2) {  // Corridor
+        } else {  // Corridor
+            // The exit not behind, checked ahead, left then right like corridorControl
+            int direction = (exits & 1) != 0 ? IRobot.AHEAD : (exits & 8) != 0 ? IRobot.LEFT : IRobot.RIGHT;
 
             // If first step, create junction at start point
             if (stepCounter == 0) {
-                JunctionRecorder junction = robotData.recordJunction(robot.getLocation().x, robot.getLocation().y, -1);
-                corridorControl(robot);
+                JunctionRecorder junction = robotData.recordJunction(x, y, -1);
+                robot.face(direction);
                 robotData.setExitHeading(junction, robot.getHeading());
                 return;
             }
 
-            corridorControl(robot);
+            robot.face(direction);
         }
     }
 
+    /**
+     * Rotates an absolute exit mask so that bit 0 is ahead, bit 1 right, bit 2 behind and bit 3 left.
+     * @param absoluteExits
+     * @param heading
+     * @return relative exit mask
+     */
+    private static int relativeExits(int absoluteExits, int heading) {
+        int h = heading - IRobot.NORTH;
+        return ((absoluteExits >> h) | (absoluteExits << (4 - h))) & 0xF;
+    }
+
     /**
      * Controller for when the robot is backtracking.
+     * Retraces the breadcrumbs using the known map, without sensing, until a cell with an unexplored exit is reached.
+     * Without breadcrumbs, backtracks by sensing.
      * @param robot
      */
     private void backtrackControl(IRobot robot) {
+        int x = robot.getLocation().x;
+        int y = robot.getLocation().y;
+        int unexplored = unexploredExits(x, y);
+
+        // At a junction, only take an exit no other robot has finished
+        if (unexplored != 0 && sharedMap != null && Integer.bitCount(robotData.map.getExits(x, y)) > 2) {
+            int heading = chooseSharedExit(x, y, robot.getHeading() - IRobot.NORTH, unexplored);
+            unexplored = heading == -1 ? 0 : 1 << heading;
+        }
+
+        if (unexplored != 0) {
+            // Switch to explorer mode and pick an unexplored exit randomly
+            mode = RobotMode.EXPLORE;
+            int randIndex = (int) (Math.random() * Integer.bitCount(unexplored));
+            for (int i = 0; i < 4; i++) {
+                if ((unexplored & (1 << i)) != 0 && randIndex-- == 0) {
+                    robot.setHeading(IRobot.NORTH + i);
+                }
+            }
+            return;
+        }
+
+        if (!breadcrumbs.isEmpty()) {
+            // Go back the way we came
+            robot.setHeading(IRobot.NORTH + (popBreadcrumb(x, y) + 2) % 4);
+            return;
+        }
+
+        // With a shared map, every exit left was finished by other robots, but in a maze with loops that does not
+        // mean this robot can reach the target without them, so it explores alone from here
+        sharedMap = null;
+
+        // Out of breadcrumbs, e.g. after restarting from a bad cached route, so head for the nearest unexplored exit
+        int frontierHeading = frontierHeading(x, y);
+        if (frontierHeading != -1) {
+            robot.setHeading(IRobot.NORTH + frontierHeading);
+            return;
+        }
+
         int exits = nonwallExits(robot);
 
         if (exits == 0 || exits == 1) {  // Deadend
@@ -234,12 +2913,94 @@ public class GrandFinale {
         }
 
         // If there is passage ahead, go into explore mode
-        if (robot.look(IRobot.AHEAD) == IRobot.PASSAGE) {
+        if (look(robot, IRobot.AHEAD) == IRobot.PASSAGE) {
             mode = RobotMode.EXPLORE;
         }
     }
 
+    /**
+     * Finds the exits of a known cell leading to cells never visited.
+     * @param x
+     * @param y
+     * @return exit mask
+     */
+    private int unexploredExits(int x, int y) {
+        int exits = robotData.map.getExits(x, y);
+        for (int i = 0; i < 4; i++) {
+            if (robotData.map.isKnown(x + MazeMap.DX[i], y + MazeMap.DY[i])) {
+                exits &= ~(1 << i);
+            }
+        }
+        return exits;
+    }
+
+    /**
+     * Breadth first search over the known cells for the nearest one with an unexplored exit.
+     * @param x
+     * @param y
+     * @return Absolute heading index of the first step towards it, or -1 if every known cell is explored
+     */
+    private int frontierHeading(int x, int y) {
+        MazeMap map = robotData.map;
+
+        // Reuse the buffers while they fit the map, and a new search number so they need no clearing
+        if (frontierQueue.length < map.width * map.height) {
+            frontierQueue = new int[map.width * map.height];
+            frontierFirst = new byte[map.width * map.height];
+            frontierStamp = new int[map.width * map.height];
+            frontierSearch = 0;
+        }
+        int[] queue = frontierQueue;
+        byte[] firstHeading = frontierFirst;
+        int[] stamp = frontierStamp;
+        int search = ++frontierSearch;
+        int head = 0;
+        int tail = 0;
+
+        stamp[y * map.width + x] = search;
+        for (int i = 0; i < 4; i++) {
+            int next = (y + MazeMap.DY[i]) * map.width + x + MazeMap.DX[i];
+            if ((map.getExits(x, y) & (1 << i)) != 0 && map.isKnown(x + MazeMap.DX[i], y + MazeMap.DY[i]) && stamp[next] != search) {
+                stamp[next] = search;
+                firstHeading[next] = (byte) i;
+                queue[tail++] = next;
+            }
+        }
+
+        while (head < tail) {
+            int cell = queue[head++];
+            int cx = cell % map.width;
+            int cy = cell / map.width;
+            if (unexploredExits(cx, cy) != 0) {
+                return firstHeading[cell];
+            }
+            for (int i = 0; i < 4; i++) {
+                int nx = cx + MazeMap.DX[i];
+                int ny = cy + MazeMap.DY[i];
+                int next = ny * map.width + nx;
+                if ((map.getExits(cx, cy) & (1 << i)) != 0 && map.isKnown(nx, ny) && stamp[next] != search) {
+                    stamp[next] = search;
+                    firstHeading[next] = firstHeading[cell];
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Controller for when the robot is following the route to the target.
+     * Junctions on the planned route and the known corridors between them are followed without sensing.
+     * Else, if the cell has a known distance to the target, step to the closest neighbour.
+     * @param robot
+     */
     private void routeControl(IRobot robot) {
+        int routeHeading = knownRouteHeading(robot.getLocation().x, robot.getLocation().y, robot.getHeading() - IRobot.NORTH);
+        if (routeHeading != -1) {
+            robot.setHeading(IRobot.NORTH + routeHeading);
+            return;
+        }
+
         int exits = nonwallExits(robot);
 
         if (exits == 0 || exits == 1) {  // Deadend
@@ -258,17 +3019,70 @@ public class GrandFinale {
         }
     }
 
+    /**
+     * Finds the step along the route from a cell without sensing, from the next decision of the route code at the
+     * start and at junctions and the known corridors between them, else from the distance field.
+     * @param x
+     * @param y
+     * @param arrival heading index 0-3 the robot arrived with
+     * @return heading index 0-3, -1 if the route is not known from this cell
+     */
+    private int knownRouteHeading(int x, int y, int arrival) {
+        if (routeDecision != -1) {
+            int heading = nextRouteDecision(x, y, arrival);
+            if (heading != -1) {
+                return heading;
+            }
+
+            // Off the coded route, so the distance field leads the rest of the run
+            routeDecision = -1;
+        }
+
+        if (robotData.distanceField != null) {
+            int heading = robotData.distanceField.getHeading(x, y);
+            if (heading != -1) {
+                return heading - IRobot.NORTH;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Takes the next decision of the route code at the start and at cells with more than two exits, a shift and a
+     * mask with no lookup of where the robot is. Corridors are followed to their other end.
+     * @param x
+     * @param y
+     * @param arrival heading index 0-3 the robot arrived with
+     * @return heading index 0-3, -1 if the cell is not on the route as coded
+     */
+    private int nextRouteDecision(int x, int y, int arrival) {
+        int exits = robotData.map.getExits(x, y);
+        if (routeDecision == 0 || Integer.bitCount(exits) > 2) {
+            if (routeDecision == robotData.routeCode.size()) {
+                return -1;
+            }
+            int heading = robotData.routeCode.get(routeDecision++);
+            return (exits & (1 << heading)) != 0 ? heading : -1;
+        }
+
+        int onward = exits & ~(1 << ((arrival + 2) % 4));
+        if (Integer.bitCount(exits) == 2 && onward != exits) {
+            return Integer.numberOfTrailingZeros(onward);
+        }
+        return -1;
+    }
+
     /**
      * Controls the robot for when it meets a junction or crossroad.
      * If it has been visited before, turn around and go into backtrack mode. Else, pick between passage exits.
      * @param robot
      */
     private void exploreJunctionControl(IRobot robot, JunctionRecorder junction) {
-        int passageExits = passageExits(robot);
-        int nonwallExits = nonwallExits(robot);
-
         // Junction visited before
         if (junction.isVisited) {
+            if (recorder != null) {
+                recorder.junctionRevisited(junction.x, junction.y);
+            }
 
             // Turn around
             robot.face(IRobot.BEHIND);
@@ -278,11 +3092,14 @@ public class GrandFinale {
 
         } else {  // Not visited before
             junction.isVisited = true;
+            if (recorder != null) {
+                recorder.junctionRecorded(junction.x, junction.y, junction.arrivalHeading);
+            }
 
             // Get arraylist of all directions of passage exits
             ArrayList<Integer> passageExitsArr = new ArrayList<Integer>();
             for (int d : directions) {
-                if (robot.look(d) == IRobot.PASSAGE) {
+                if (look(robot, d) == IRobot.PASSAGE) {
                     passageExitsArr.add(d);
                 }
             }
@@ -292,7 +3109,7 @@ public class GrandFinale {
                 // Pick random non wall direction
                 ArrayList<Integer> exitsArr = new ArrayList<Integer>();
                 for (int d : directions) {
-                    if (robot.look(d) != IRobot.WALL) {
+                    if (look(robot, d) != IRobot.WALL) {
                         exitsArr.add(d);
                     }
                 }
@@ -300,6 +3117,24 @@ public class GrandFinale {
                 return;
             }
 
+            // Let the shared map decide which passage this robot takes
+            if (sharedMap != null) {
+                int passages = 0;
+                for (int d : passageExitsArr) {
+                    passages |= 1 << ((robot.getHeading() - IRobot.NORTH + d - IRobot.AHEAD) % 4);
+                }
+
+                int heading = chooseSharedExit(robot.getLocation().x, robot.getLocation().y, robot.getHeading() - IRobot.NORTH, passages);
+                if (heading == -1) {
+                    // Every passage has been explored by another robot
+                    robot.face(IRobot.BEHIND);
+                    mode = RobotMode.BACKTRACK;
+                } else {
+                    robot.setHeading(IRobot.NORTH + heading);
+                }
+                return;
+            }
+
             // Choose random direction
             int randIndex = (int) (Math.random() * passageExitsArr.size());
 
@@ -308,6 +3143,56 @@ public class GrandFinale {
         }
     }
 
+    /**
+     * Chooses one of the exits of a junction using the shared map, trying them in random order.
+     * A free exit is claimed if there is one. Else an exit another robot is still exploring is followed to help it.
+     * The exit the robot arrived through is claimed first, as this robot has already explored it.
+     * @param x
+     * @param y
+     * @param arrivalHeading heading index 0-3 the robot arrived with
+     * @param exits mask of exits to choose from
+     * @return heading index of the exit chosen, -1 if every exit has been finished by another robot
+     */
+    private int chooseSharedExit(int x, int y, int arrivalHeading, int exits) {
+        int slot = sharedMap.insertIfAbsent(x, y);
+        sharedMap.claimExit(slot, (arrivalHeading + 2) % 4);
+
+        int offset = (int) (Math.random() * 4);
+        for (int i = 0; i < 4; i++) {
+            int heading = (offset + i) % 4;
+            if ((exits & (1 << heading)) != 0 && sharedMap.claimExit(slot, heading)) {
+                return heading;
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            int heading = (offset + i) % 4;
+            if ((exits & (1 << heading)) != 0 && sharedMap.exitState(slot, heading) == SharedJunctionMap.CLAIMED) {
+                return heading;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Picks up the last breadcrumb. If it leads back into a junction, the exit it was dropped through has been
+     * fully explored, which is recorded in the shared map.
+     * @param x current x
+     * @param y current y
+     * @return heading index 0-3 of the breadcrumb
+     */
+    private int popBreadcrumb(int x, int y) {
+        int heading = breadcrumbs.pop();
+
+        if (sharedMap != null) {
+            int junctionX = x - MazeMap.DX[heading];
+            int junctionY = y - MazeMap.DY[heading];
+            if (Integer.bitCount(robotData.map.getExits(junctionX, junctionY)) > 2) {
+                sharedMap.finishExit(sharedMap.insertIfAbsent(junctionX, junctionY), heading);
+            }
+        }
+        return heading;
+    }
+
     /**
      * Controls the robot for when it meets a junction while backtracking.
      * If there are no passage exits, backtrack by moving in the opposite direction to the arrival heading.
@@ -332,7 +3217,7 @@ public class GrandFinale {
             // Get arraylist of passage exits
             ArrayList<Integer> passageExitsArr = new ArrayList<Integer>();
             for (int d : directions) {
-                if (robot.look(d) == IRobot.PASSAGE) {
+                if (look(robot, d) == IRobot.PASSAGE) {
                     passageExitsArr.add(d);
                 }
             }
@@ -348,6 +3233,9 @@ public class GrandFinale {
 
         // Junction not found or exit heading leads to opposite direction. Run was reset early
         if (heading == -1 || (robot.getHeading() - heading + 4) % 4 == 2) {
+            if (recorder != null) {
+                recorder.routeFallback(robot.getLocation().x, robot.getLocation().y, heading);
+            }
 
             // Go into explore mode
             mode = RobotMode.EXPLORE;
@@ -377,7 +3265,7 @@ public class GrandFinale {
         } else {
             // Iterate through all directions until it finds the only one it can move to.
             for (int d : directions) {
-                if (robot.look(d) != IRobot.WALL) {
+                if (look(robot, d) != IRobot.WALL) {
                     // Face direction
                     robot.face(d);
                     return;
@@ -393,7 +3281,7 @@ public class GrandFinale {
     private void corridorControl(IRobot robot) {
         // Iterates through all directions that are not behind the robot until it finds the only one it can move to.
         for (int d : directions) {
-            if (d != IRobot.BEHIND && robot.look(d) != IRobot.WALL) {
+            if (d != IRobot.BEHIND && look(robot, d) != IRobot.WALL) {
 
                 // Face direction
                 robot.face(d);
@@ -409,7 +3297,7 @@ public class GrandFinale {
             // Get arraylist of all directions of non-wall exits
             ArrayList<Integer> allExitsArr = new ArrayList<Integer>();
             for (int d : directions) {
-                if (robot.look(d) != IRobot.WALL) {
+                if (look(robot, d) != IRobot.WALL) {
                     allExitsArr.add(d);
                 }
             }
@@ -422,7 +3310,7 @@ public class GrandFinale {
             // Get arraylist of all directions of passage exits
             ArrayList<Integer> passageExitsArr = new ArrayList<Integer>();
             for (int d : directions) {
-                if (robot.look(d) == IRobot.PASSAGE) {
+                if (look(robot, d) == IRobot.PASSAGE) {
                     passageExitsArr.add(d);
                 }
             }
@@ -433,6 +3321,21 @@ public class GrandFinale {
         }
     }
 
+    /**
+     * Looks in a direction, counting the call in the run metrics and recording the result.
+     * @param robot
+     * @param direction
+     * @return WALL, PASSAGE or BEENBEFORE
+     */
+    private int look(IRobot robot, int direction) {
+        metrics.recordLook(stepMode);
+        int result = robot.look(direction);
+        if (recordSteps) {
+            recorder.look(robot, direction, result);
+        }
+        return result;
+    }
+
     /**
      * Finds the number of non-WALL exits in the 4 cardinal directions around the robot.
      * @param robot
@@ -441,13 +3344,28 @@ public class GrandFinale {
     private int nonwallExits(IRobot robot) {
         int exits = 0;
         for (int d : directions) {
-            if (robot.look(d) != IRobot.WALL) {
+            if (look(robot, d) != IRobot.WALL) {
                 exits++;
             }
         }
         return exits;
     }
 
+    /**
+     * Finds the non-WALL exits around the robot as absolute headings.
+     * @param robot
+     * @return int mask with bit i set if heading NORTH + i is not a wall
+     */
+    private int nonwallExitMask(IRobot robot) {
+        int mask = 0;
+        for (int d : directions) {
+            if (look(robot, d) != IRobot.WALL) {
+                mask |= 1 << ((robot.getHeading() - IRobot.NORTH + d - IRobot.AHEAD) % 4);
+            }
+        }
+        return mask;
+    }
+
     /**
      * Returns the number of PASSAGE exits in the 4 cardinal directions around the robot.
      * @param robot
@@ -456,10 +3374,11 @@ public class GrandFinale {
     private int passageExits(IRobot robot) {
         int exits = 0;
         for (int d : directions) {
-            if (robot.look(d) == IRobot.PASSAGE) {
+            if (look(robot, d) == IRobot.PASSAGE) {
                 exits++;
             }
         }
         return exits;
     }
 }
+
@@ -0,0 +1,346 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.util.ArrayList;
+
+
+enum WallFollowMode {
+    HEAD_FOR_TARGET,
+    FOLLOW_WALL,
+    RANDOM
+}
+
+
+/**
+ * Finds the target with no memory of the maze, only a fixed handful of ints, following walls in the way of the Pledge
+ * algorithm. Pledge keeps one fixed heading; here the robot instead makes a greedy walk toward the target, along
+ * whichever axis it is further away, and on meeting a wall follows it, counting the quarter turns made, until the
+ * count is back to zero with the way ahead clear, when it walks toward the target again. In a perfect maze, or one
+ * with the target on a wall connected to the outer wall, following one wall alone is enough.
+ * As the heading changes with the target, and Pledge is made to escape a maze rather than to find a cell inside one,
+ * this can go round a loop forever. Loops are found in constant memory by Brent's cycle detection on the location,
+ * heading, mode and turn count, bounded so that a count growing every time round still repeats: the state is saved
+ * every power of two steps and a loop is found when it comes round again. Each loop found switches to the next
+ * strategy: the left hand on the wall, then the right, then only following the left wall and then the right, and at
+ * last turning at random at junctions, which reaches the target in any maze.
+ * Nothing is kept between runs, so every run is like the first.
+ */
+public class WallFollower {
+    private final static int[] directions = {IRobot.AHEAD, IRobot.BEHIND, IRobot.LEFT, IRobot.RIGHT};
+
+    // Most quarter turns either way told apart by cycle detection, a turn round and back
+    private final static int MAX_SAVED_TURNS = 8;
+
+    private int stepCounter = 0;
+    private WallFollowMode mode = WallFollowMode.HEAD_FOR_TARGET;
+
+    // Strategies tried, the hand kept on the wall, and whether the wall is left when the turns are back to zero
+    private int escapes = 0;
+    private int hand = IRobot.LEFT;
+    private boolean leavesWall = true;
+
+    // Heading towards the target when the wall was met, and quarter turns since, clockwise positive
+    private int preferredHeading = IRobot.NORTH;
+    private int turns = 0;
+
+    // State saved for cycle detection, and steps since it was saved
+    private int savedX = -1;
+    private int savedY = -1;
+    private int savedHeading = 0;
+    private int savedTurns = 0;
+    private WallFollowMode savedMode = WallFollowMode.HEAD_FOR_TARGET;
+    private int power = 1;
+    private int sinceSaved = 0;
+
+    /**
+     * Called when run is reset.
+     */
+    public void reset() {
+        if (escapes != 0) {
+            System.out.println(escapes + " loops found, ended " + mode + (mode == WallFollowMode.RANDOM ? "" : " with the "
+                + (hand == IRobot.LEFT ? "left" : "right") + " hand on the wall"));
+        }
+        stepCounter = 0;
+    }
+
+    /**
+     * Called each step.
+     * @param robot
+     */
+    public void controlRobot(IRobot robot) {
+
+        // Every run starts with Pledge, left hand on the wall
+        if (stepCounter == 0) {
+            escapes = 0;
+            hand = IRobot.LEFT;
+            leavesWall = true;
+            mode = WallFollowMode.HEAD_FOR_TARGET;
+            saveState(robot);
+        } else if (mode != WallFollowMode.RANDOM) {
+            detectCycle(robot);
+        }
+
+        if (mode == WallFollowMode.HEAD_FOR_TARGET) {
+            headForTargetControl(robot);
+        } else if (mode == WallFollowMode.FOLLOW_WALL) {
+            followWallControl(robot);
+        } else {  // mode == WallFollowMode.RANDOM
+            randomControl(robot);
+        }
+
+        // Increment stepCounter
+        stepCounter++;
+    }
+
+    /**
+     * Saves the state the robot is in now, to be compared against from here on.
+     * @param robot
+     */
+    private void saveState(IRobot robot) {
+        savedX = robot.getLocation().x;
+        savedY = robot.getLocation().y;
+        savedHeading = robot.getHeading();
+        savedTurns = boundedTurns();
+        savedMode = mode;
+        power = 1;
+        sinceSaved = 0;
+    }
+
+    /**
+     * Brent's cycle detection. The saved state is moved on after 1, 2, 4... steps, so a loop of any length is found
+     * within about three times its length of entering it.
+     * @param robot
+     */
+    private void detectCycle(IRobot robot) {
+        if (robot.getLocation().x == savedX && robot.getLocation().y == savedY && robot.getHeading() == savedHeading
+                && boundedTurns() == savedTurns && mode == savedMode) {
+            escape(robot);
+            return;
+        }
+
+        sinceSaved++;
+        if (sinceSaved == power) {
+            int nextPower = power * 2;
+            saveState(robot);
+            power = nextPower;
+        }
+    }
+
+    /**
+     * Switches to the next strategy after going round a loop.
+     * @param robot
+     */
+    private void escape(IRobot robot) {
+        escapes++;
+        if (escapes == 1) {  // Pledge, right hand on the wall
+            hand = IRobot.RIGHT;
+            mode = WallFollowMode.HEAD_FOR_TARGET;
+        } else if (escapes == 2) {  // Follow the left wall only
+            hand = IRobot.LEFT;
+            leavesWall = false;
+            mode = WallFollowMode.FOLLOW_WALL;
+        } else if (escapes == 3) {  // Follow the right wall only
+            hand = IRobot.RIGHT;
+            mode = WallFollowMode.FOLLOW_WALL;
+        } else {
+            mode = WallFollowMode.RANDOM;
+        }
+        saveState(robot);
+    }
+
+    /**
+     * The turn count as part of the state for cycle detection. It only matters when the wall is left as it comes back
+     * to zero, and is bounded as it grows every time round a loop that is never left.
+     * @return turns, 0 if the wall is never left
+     */
+    private int boundedTurns() {
+        return leavesWall ? Math.max(-MAX_SAVED_TURNS, Math.min(MAX_SAVED_TURNS, turns)) : 0;
+    }
+
+    /**
+     * Controls the robot for when it is heading for the target. Moves along whichever axis the target is further
+     * along, else the other, and starts following the wall when both are blocked.
+     * @param robot
+     */
+    private void headForTargetControl(IRobot robot) {
+        int dx = robot.getTargetLocation().x - robot.getLocation().x;
+        int dy = robot.getTargetLocation().y - robot.getLocation().y;
+        int horizontal = dx > 0 ? IRobot.EAST : IRobot.WEST;
+        int vertical = dy > 0 ? IRobot.SOUTH : IRobot.NORTH;
+        int primary = Math.abs(dx) >= Math.abs(dy) ? horizontal : vertical;
+        int secondary = primary == horizontal ? vertical : horizontal;
+
+        if (lookHeading(robot, primary) != IRobot.WALL) {
+            robot.setHeading(primary);
+            return;
+        }
+        if ((primary == horizontal ? dy : dx) != 0 && lookHeading(robot, secondary) != IRobot.WALL) {
+            robot.setHeading(secondary);
+            return;
+        }
+
+        // Blocked, so turn away from the hand to put the wall on that side
+        mode = WallFollowMode.FOLLOW_WALL;
+        preferredHeading = primary;
+        turns = 0;
+        robot.setHeading(primary);
+        int[] order = {otherHand(), hand, IRobot.BEHIND};
+        for (int d : order) {
+            if (robot.look(d) != IRobot.WALL) {
+                faceCountingTurns(robot, d);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Controls the robot for when it is following a wall. Corridors and dead ends are as for any controller; at
+     * junctions the exit nearest the hand is taken. Following Pledge, the wall is left when the turns made since
+     * meeting it are back to zero and the way ahead, which is then the preferred heading, is clear.
+     * @param robot
+     */
+    private void followWallControl(IRobot robot) {
+        if (leavesWall && turns == 0 && robot.look(IRobot.AHEAD) != IRobot.WALL) {
+            mode = WallFollowMode.HEAD_FOR_TARGET;
+            headForTargetControl(robot);
+            return;
+        }
+
+        int headingBefore = robot.getHeading();
+        int exits = nonwallExits(robot);
+        if (exits == 0 || exits == 1) {  // Deadend
+            deadEndControl(robot);
+        } else if (exits == 2 && robot.look(IRobot.BEHIND) != IRobot.WALL) {  // Corridor
+            corridorControl(robot);
+        } else {  // Junction or crossroads, or the first step
+            int[] order = {hand, IRobot.AHEAD, otherHand(), IRobot.BEHIND};
+            for (int d : order) {
+                if (robot.look(d) != IRobot.WALL) {
+                    robot.face(d);
+                    break;
+                }
+            }
+        }
+        turns += turnsBetween(headingBefore, robot.getHeading());
+    }
+
+    /**
+     * Controls the robot for when no wall following strategy has reached the target. Corridors and dead ends are as
+     * for any controller; at junctions any exit but the one behind is taken at random.
+     * @param robot
+     */
+    private void randomControl(IRobot robot) {
+        int exits = nonwallExits(robot);
+        if (exits == 0 || exits == 1) {  // Deadend
+            deadEndControl(robot);
+        } else if (exits == 2) {  // Corridor
+            corridorControl(robot);
+        } else {  // Junction or crossroads
+            ArrayList<Integer> exitsArr = new ArrayList<Integer>();
+            for (int d : directions) {
+                if (d != IRobot.BEHIND && robot.look(d) != IRobot.WALL) {
+                    exitsArr.add(d);
+                }
+            }
+            int randIndex = (int) (Math.random() * exitsArr.size());
+            robot.face(exitsArr.get(randIndex));
+        }
+    }
+
+    /**
+     * Faces a relative direction, counting the turn.
+     * @param robot
+     * @param direction
+     */
+    private void faceCountingTurns(IRobot robot, int direction) {
+        int headingBefore = robot.getHeading();
+        robot.face(direction);
+        turns += turnsBetween(headingBefore, robot.getHeading());
+    }
+
+    /**
+     * Quarter turns from one heading to another, clockwise positive. Turning around is two turns away from the hand.
+     * @param from
+     * @param to
+     * @return turns
+     */
+    private int turnsBetween(int from, int to) {
+        int turn = (to - from + 4) % 4;
+        if (turn == 3) {
+            return -1;
+        }
+        if (turn == 2) {
+            return hand == IRobot.LEFT ? 2 : -2;
+        }
+        return turn;
+    }
+
+    /**
+     * @return relative direction of the hand not on the wall
+     */
+    private int otherHand() {
+        return hand == IRobot.LEFT ? IRobot.RIGHT : IRobot.LEFT;
+    }
+
+    /**
+     * Looks in an absolute heading.
+     * @param robot
+     * @param heading
+     * @return WALL, PASSAGE or BEENBEFORE
+     */
+    private int lookHeading(IRobot robot, int heading) {
+        return robot.look(IRobot.AHEAD + (heading - robot.getHeading() + 4) % 4);
+    }
+
+    /**
+     * Controls the robot for when it meets a dead end.
+     * If first step, find the direction it can move to.
+     * Else, go back from the direction it came from
+     * @param robot
+     */
+    private void deadEndControl(IRobot robot) {
+        if (stepCounter != 0) {
+            // Go back
+            robot.face(IRobot.BEHIND);
+
+        } else {
+            // Iterate through all directions until it finds the only one it can move to.
+            for (int d : directions) {
+                if (robot.look(d) != IRobot.WALL) {
+                    // Face direction
+                    robot.face(d);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Controls the robot for when it meets a corridor.
+     * @param robot
+     */
+    private void corridorControl(IRobot robot) {
+        // Iterates through all directions that are not behind the robot until it finds the only one it can move to.
+        for (int d : directions) {
+            if (d != IRobot.BEHIND && robot.look(d) != IRobot.WALL) {
+
+                // Face direction
+                robot.face(d);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the number of non-WALL exits in the 4 cardinal directions around the robot.
+     * @param robot
+     * @return int number of non-WALL exits
+     */
+    private int nonwallExits(IRobot robot) {
+        int exits = 0;
+        for (int d : directions) {
+            if (robot.look(d) != IRobot.WALL) {
+                exits++;
+            }
+        }
+        return exits;
+    }
+}
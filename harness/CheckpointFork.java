@@ -0,0 +1,155 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+
+/**
+ * Checks that a controller can be stopped partway through exploring and carried on from a checkpoint, and what that
+ * costs. In every maze a controller explores for a fraction of the open cells' worth of steps and is checkpointed.
+ * The original then finishes the first run and the later runs, as does a new controller restored from the checkpoint
+ * with a copy of the robot, and several more restored forks each finish the first run on their own, choosing
+ * differently wherever the controller chooses at random.
+ * Usage: java CheckpointFork [mazes] [size] [runs] [forks] [fraction] [loopFraction] [controllerClass]
+ */
+public class CheckpointFork {
+    private final static int MEASURED = 20;
+
+    /**
+     * Steps a robot until it reaches the target or the step limit.
+     * @param controller
+     * @param robot
+     * @param limit
+     * @return steps of the run
+     * @throws Throwable anything the controller throws
+     */
+    private static long finishRun(Controller controller, HeadlessRobot robot, long limit) throws Throwable {
+        while (!robot.atTarget() && robot.getSteps() < limit) {
+            controller.controlRobot(robot);
+            robot.advance();
+        }
+        return robot.getSteps();
+    }
+
+    /**
+     * Finishes the current run and runs the maze again, resetting between runs as the environment does.
+     * @param controller
+     * @param robot
+     * @param runs total runs, including the current one
+     * @param limit
+     * @return steps of every run from the current one
+     * @throws Throwable anything the controller throws
+     */
+    private static long[] finishRuns(Controller controller, HeadlessRobot robot, int runs, long limit) throws Throwable {
+        long[] runSteps = new long[runs];
+        for (int run = 0; run < runs; run++) {
+            runSteps[run] = finishRun(controller, robot, limit);
+            controller.reset();
+            robot.reset();
+        }
+        return runSteps;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        int mazes = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 201;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int forks = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        double fraction = args.length > 4 ? Double.parseDouble(args[4]) : 0.25;
+        double loopFraction = args.length > 5 ? Double.parseDouble(args[5]) : 0.05;
+        String name = args.length > 6 ? args[6] : "GrandFinale";
+
+        Controller original = Controller.load(name);
+        if (!original.canCheckpoint()) {
+            System.out.println(name + " has no checkpoint and restore methods");
+            return;
+        }
+        Controller resumed = Controller.load(name);
+        Controller fork = Controller.load(name);
+
+        // Silence what controllers print every run
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        long limit = 100L * size * size;
+        long checkpointSteps = Math.max(1, (long) (fraction * size * size / 2));
+        int checkpointed = 0;
+        int failed = 0;
+        long bytes = 0;
+        long checkpointTime = 0;
+        long restoreTime = 0;
+        long[] originalSteps = new long[2];
+        long[] resumedSteps = new long[2];
+        long forkSteps = 0;
+        long bestForkSteps = 0;
+
+        for (int i = 0; i < mazes; i++) {
+            HeadlessMaze maze = HeadlessMaze.generate(size, size, loopFraction, i);
+            HeadlessRobot robot = new HeadlessRobot(maze);
+            original.newInstance();
+            while (!robot.atTarget() && robot.getSteps() < checkpointSteps) {
+                original.controlRobot(robot);
+                robot.advance();
+            }
+            if (robot.atTarget()) {
+                continue;  // Found the target before the checkpoint
+            }
+            checkpointed++;
+
+            // Time the checkpoint and restore, repeated to see past the timer
+            byte[] blob = null;
+            long start = System.nanoTime();
+            for (int j = 0; j < MEASURED; j++) {
+                blob = original.checkpoint();
+            }
+            checkpointTime += (System.nanoTime() - start) / MEASURED;
+            start = System.nanoTime();
+            for (int j = 0; j < MEASURED; j++) {
+                resumed.restore(blob, 0);
+            }
+            restoreTime += (System.nanoTime() - start) / MEASURED;
+            bytes += blob.length;
+
+            // The resumed controller carries on with a copy of the robot, as if the job had moved
+            HeadlessRobot resumedRobot = robot.copy();
+            long[] resumedRuns = finishRuns(resumed, resumedRobot, runs, limit);
+
+            // Forks explore the rest of the first run their own way
+            long bestFork = Long.MAX_VALUE;
+            for (int j = 0; j < forks; j++) {
+                fork.restore(blob, 0);
+                long steps = finishRun(fork, robot.copy(), limit);
+                forkSteps += steps;
+                bestFork = Math.min(bestFork, steps);
+                if (steps >= limit) {
+                    failed++;
+                }
+            }
+            bestForkSteps += forks == 0 ? 0 : bestFork;
+
+            long[] originalRuns = finishRuns(original, robot, runs, limit);
+            for (int run = 0; run < runs; run++) {
+                originalSteps[run == 0 ? 0 : 1] += originalRuns[run];
+                resumedSteps[run == 0 ? 0 : 1] += resumedRuns[run];
+                if (originalRuns[run] >= limit || resumedRuns[run] >= limit) {
+                    failed++;
+                }
+            }
+        }
+        System.setOut(out);
+
+        int n = Math.max(1, checkpointed);
+        long later = Math.max(1, (long) checkpointed * (runs - 1));
+        out.println(name + ", " + checkpointed + " of " + mazes + " mazes of " + size + "x" + size
+            + " checkpointed after " + checkpointSteps + " steps, loop fraction " + loopFraction);
+        out.println(String.format("Checkpoint %d bytes, taken in %.1f us, restored in %.1f us",
+            bytes / n, checkpointTime / 1e3 / n, restoreTime / 1e3 / n));
+        out.println(String.format("Original: first runs %d steps, later runs %d steps", originalSteps[0] / n,
+            originalSteps[1] / later));
+        out.println(String.format("Resumed:  first runs %d steps, later runs %d steps", resumedSteps[0] / n,
+            resumedSteps[1] / later));
+        if (forks > 0) {
+            out.println(String.format("%d forks: first runs %d steps, best fork %d steps", forks,
+                forkSteps / ((long) n * forks), bestForkSteps / n));
+        }
+        out.println(failed + " runs did not reach the target");
+    }
+}
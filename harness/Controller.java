@@ -0,0 +1,421 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+
+
+/**
+ * A robot controller loaded by class name, so the harness can drive any of the coursework controllers without
+ * compiling against them. Each controller is compiled on its own, since they share helper class names.
+ * The mode of a controller is read from its RobotMode field mode, or from the explorerMode field of the earlier
+ * controllers (1 explore, 0 backtrack). Controllers with neither are always in mode 0.
+ * With -Dharness.latency=true the time of every controlRobot call is recorded by mode, and reported at every reset.
+ * Given a VisitHeatmap with setHeatmap, every step is counted in it by cell and mode, see HeadlessRunner.
+ * Controllers with controlRobotBatch(IRobot, int[]) and batchTaken(int) methods can also decide several steps per call,
+ * see HeadlessRunner.
+ * Controllers with byte[] checkpoint() and restore(byte[]) methods can be snapshot and resumed, see CheckpointFork.
+ * Controllers with a setSharedMap method can explore one maze together with others, see SharedMapBenchmark.
+ * Controllers with a setStepRecorder method are given a recorder for every new instance when there is something to
+ * record, see StepRecording.
+ */
+public class Controller {
+    private final static MethodType CONTROL = MethodType.methodType(void.class, Object.class, IRobot.class);
+    private final static MethodType RESET = MethodType.methodType(void.class, Object.class);
+    private final static MethodType CONTROL_BATCH = MethodType.methodType(int.class, Object.class, IRobot.class, int[].class);
+    private final static MethodType BATCH_TAKEN = MethodType.methodType(void.class, Object.class, int.class);
+    private final static MethodType CHECKPOINT = MethodType.methodType(byte[].class, Object.class);
+    private final static MethodType RESTORE = MethodType.methodType(void.class, Object.class, byte[].class);
+    private final static MethodType SET_SHARED_MAP = MethodType.methodType(void.class, Object.class, Object.class);
+    private final static MethodType SET_STEP_RECORDER = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private Class<?> type;
+    private MethodHandle constructor;
+    private MethodHandle controlRobot;
+    private MethodHandle reset;
+    private MethodHandle controlRobotBatch;
+    private MethodHandle batchTaken;
+    private MethodHandle checkpoint;
+    private MethodHandle restore;
+    private MethodHandle setSharedMap;
+    private MethodHandle setStepRecorder;
+    private MethodHandle modeGetter;
+    private boolean explorerMode = false;
+    private String[] modeNames = {"EXPLORE"};
+    private Object instance;
+
+    // Latency of controlRobot per mode, null unless enabled
+    private LatencyHistogram[] latency;
+    private int run = 0;
+
+    // Visits of every cell per mode, null unless set
+    private VisitHeatmap heatmap;
+
+    // The StepRecorder interface of the controller, the StepRecording method each of its methods calls, and what the
+    // current instance is recording, null if nothing
+    private Class<?> recorderType;
+    private HashMap<Method, Method> recorderTargets;
+    private StepRecording recording;
+
+    public Controller(Class<?> type) throws ReflectiveOperationException {
+        this.type = type;
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        constructor = lookup.findConstructor(type, MethodType.methodType(void.class)).asType(MethodType.methodType(Object.class));
+        controlRobot = lookup.findVirtual(type, "controlRobot", MethodType.methodType(void.class, IRobot.class)).asType(CONTROL);
+        try {
+            reset = lookup.findVirtual(type, "reset", MethodType.methodType(void.class)).asType(RESET);
+        } catch (NoSuchMethodException e) {
+            reset = null;  // coursework1 Ex1 and Ex2 keep no state between runs
+        }
+        try {
+            controlRobotBatch = lookup.findVirtual(type, "controlRobotBatch", MethodType.methodType(int.class, IRobot.class, int[].class)).asType(CONTROL_BATCH);
+            batchTaken = lookup.findVirtual(type, "batchTaken", MethodType.methodType(void.class, int.class)).asType(BATCH_TAKEN);
+        } catch (NoSuchMethodException e) {
+            controlRobotBatch = null;  // Only GrandFinale decides several steps at once
+            batchTaken = null;
+        }
+        try {
+            checkpoint = lookup.findVirtual(type, "checkpoint", MethodType.methodType(byte[].class)).asType(CHECKPOINT);
+            restore = lookup.findVirtual(type, "restore", MethodType.methodType(void.class, byte[].class)).asType(RESTORE);
+        } catch (NoSuchMethodException e) {
+            checkpoint = null;  // Only GrandFinale can be snapshot
+            restore = null;
+        }
+
+        // The map and recorder types belong to the controller, so the methods are found by name
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals("setSharedMap") && method.getParameterCount() == 1) {
+                setSharedMap = lookup.unreflect(method).asType(SET_SHARED_MAP);
+            } else if (method.getName().equals("setStepRecorder") && method.getParameterCount() == 1
+                    && method.getParameterTypes()[0].isInterface()) {
+                recorderType = method.getParameterTypes()[0];
+                recorderTargets = recorderTargets(recorderType);
+                setStepRecorder = lookup.unreflect(method).asType(SET_STEP_RECORDER);
+            }
+        }
+
+        MethodHandles.Lookup privateLookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+        for (Field field : type.getDeclaredFields()) {
+            if (field.getName().equals("mode") && field.getType().isEnum()) {
+                Object[] constants = field.getType().getEnumConstants();
+                modeNames = new String[constants.length];
+                for (int i = 0; i < constants.length; i++) {
+                    modeNames[i] = ((Enum<?>) constants[i]).name();
+                }
+                modeGetter = privateLookup.unreflectGetter(field).asType(MethodType.methodType(Enum.class, Object.class));
+            } else if (field.getName().equals("explorerMode") && field.getType() == int.class) {
+                modeNames = new String[] {"EXPLORE", "BACKTRACK"};
+                modeGetter = privateLookup.unreflectGetter(field).asType(MethodType.methodType(int.class, Object.class));
+                explorerMode = true;
+            }
+        }
+
+        if (Boolean.getBoolean("harness.latency")) {
+            setLatencyRecording(true);
+        }
+        newInstance();
+    }
+
+    /**
+     * @param className
+     * @return controller
+     * @throws ReflectiveOperationException if the class is not on the class path or is not a controller
+     */
+    public static Controller load(String className) throws ReflectiveOperationException {
+        return new Controller(Class.forName(className));
+    }
+
+    /**
+     * Matches every method of a StepRecorder interface with the StepRecording method of the same name and parameters.
+     * @param recorderType
+     * @return StepRecording method of every interface method, null for those it has none of
+     * @throws NoSuchMethodException if a method with no StepRecording method returns something
+     */
+    private static HashMap<Method, Method> recorderTargets(Class<?> recorderType) throws NoSuchMethodException {
+        HashMap<Method, Method> targets = new HashMap<Method, Method>();
+        for (Method method : recorderType.getMethods()) {
+            Method target = null;
+            try {
+                target = StepRecording.class.getMethod(method.getName(), method.getParameterTypes());
+            } catch (NoSuchMethodException e) {
+                // Nothing recorded
+            }
+            if (target != null ? target.getReturnType() != method.getReturnType() : method.getReturnType() != void.class) {
+                throw new NoSuchMethodException("StepRecording has no " + method);
+            }
+            targets.put(method, target);
+        }
+        return targets;
+    }
+
+    /**
+     * Replaces the controller with a new one, as for a new maze.
+     * @throws ReflectiveOperationException
+     */
+    public void newInstance() throws ReflectiveOperationException {
+        run = 0;
+        try {
+            instance = (Object) constructor.invokeExact();
+            if (setStepRecorder != null) {
+                startRecording();
+            }
+        } catch (ReflectiveOperationException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new ReflectiveOperationException(e);
+        }
+    }
+
+    /**
+     * Hands the new instance a StepRecorder calling a new StepRecording, if there is something to record.
+     * @throws Throwable anything setStepRecorder throws
+     */
+    private void startRecording() throws Throwable {
+        if (recording != null) {
+            recording.close();
+        }
+        recording = StepRecording.fromProperties();
+        if (recording == null) {
+            return;
+        }
+
+        StepRecording target = recording;
+        Object recorder = Proxy.newProxyInstance(recorderType.getClassLoader(), new Class<?>[] {recorderType}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(target, args);
+            }
+            Method call = recorderTargets.get(method);
+            if (call == null) {
+                return null;
+            }
+            try {
+                return call.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+        setStepRecorder.invokeExact(instance, recorder);
+    }
+
+    /**
+     * @return the controller object, for setting anything specific to it
+     */
+    public Object getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return name of the controller class
+     */
+    public String getName() {
+        return type.getName();
+    }
+
+    /**
+     * Starts or stops recording the latency of controlRobot, clearing anything recorded.
+     * @param enabled
+     */
+    public void setLatencyRecording(boolean enabled) {
+        latency = null;
+        if (enabled) {
+            latency = new LatencyHistogram[modeNames.length];
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    /**
+     * Counts every step from here on in a heatmap, under the mode the controller is in once it has decided the step.
+     * @param heatmap null to stop counting
+     */
+    public void setHeatmap(VisitHeatmap heatmap) {
+        this.heatmap = heatmap;
+    }
+
+    /**
+     * @return heatmap steps are counted in, null if none
+     */
+    public VisitHeatmap getHeatmap() {
+        return heatmap;
+    }
+
+    public void controlRobot(IRobot robot) throws Throwable {
+        if (heatmap != null) {
+            int x = robot.getLocation().x;
+            int y = robot.getLocation().y;
+            timeControlRobot(robot);
+            heatmap.visit(getMode(), x, y);
+            return;
+        }
+        timeControlRobot(robot);
+    }
+
+    private void timeControlRobot(IRobot robot) throws Throwable {
+        if (latency == null) {
+            controlRobot.invokeExact(instance, robot);
+            return;
+        }
+
+        // Recorded under the mode the step started in, which did the work of any change of mode
+        int mode = getMode();
+        long start = System.nanoTime();
+        controlRobot.invokeExact(instance, robot);
+        long time = System.nanoTime() - start;
+        latency[mode].record(time);
+    }
+
+    /**
+     * @return true if the controller can decide several steps per call
+     */
+    public boolean canBatch() {
+        return controlRobotBatch != null;
+    }
+
+    /**
+     * Decides this step, and the headings of any steps after it the controller already knows, through
+     * controlRobotBatch. Controllers without it decide this step only. The controller does not count the steps after
+     * this one until told how many were taken with batchTaken.
+     * @param robot
+     * @param moves filled with the absolute headings of the steps after this one
+     * @return number of headings written
+     * @throws Throwable
+     */
+    public int controlRobotBatch(IRobot robot, int[] moves) throws Throwable {
+        if (controlRobotBatch == null) {
+            controlRobot(robot);
+            return 0;
+        }
+        if (heatmap != null) {
+            int x = robot.getLocation().x;
+            int y = robot.getLocation().y;
+            int count = timeControlRobotBatch(robot, moves);
+            heatmap.visit(getMode(), x, y);
+            return count;
+        }
+        return timeControlRobotBatch(robot, moves);
+    }
+
+    private int timeControlRobotBatch(IRobot robot, int[] moves) throws Throwable {
+        if (latency == null) {
+            return (int) controlRobotBatch.invokeExact(instance, robot, moves);
+        }
+
+        int mode = getMode();
+        long start = System.nanoTime();
+        int count = (int) controlRobotBatch.invokeExact(instance, robot, moves);
+        long time = System.nanoTime() - start;
+        latency[mode].record(time);
+        return count;
+    }
+
+    /**
+     * Tells the controller how many of the headings written by the last controlRobotBatch were taken, counting a step
+     * into a wall but none after it.
+     * @param taken
+     * @throws Throwable
+     */
+    public void batchTaken(int taken) throws Throwable {
+        if (batchTaken != null) {
+            batchTaken.invokeExact(instance, taken);
+        }
+    }
+
+    /**
+     * @return true if the controller can be snapshot and restored
+     */
+    public boolean canCheckpoint() {
+        return checkpoint != null;
+    }
+
+    /**
+     * @return snapshot of the controller, from its checkpoint method
+     * @throws Throwable anything the controller throws, or UnsupportedOperationException if it has no checkpoint
+     */
+    public byte[] checkpoint() throws Throwable {
+        if (checkpoint == null) {
+            throw new UnsupportedOperationException(getName() + " has no checkpoint method");
+        }
+        return (byte[]) checkpoint.invokeExact(instance);
+    }
+
+    /**
+     * Replaces the controller with a new one restored from a snapshot, as the controller that took it was when it
+     * was taken.
+     * @param blob from checkpoint
+     * @param run number of runs the controller that took it had finished, for reporting latency
+     * @throws Throwable anything the controller throws, or UnsupportedOperationException if it has no restore
+     */
+    public void restore(byte[] blob, int run) throws Throwable {
+        if (restore == null) {
+            throw new UnsupportedOperationException(getName() + " has no restore method");
+        }
+        newInstance();
+        restore.invokeExact(instance, blob);
+        this.run = run;
+    }
+
+    /**
+     * @return true if the controller can share a map with other controllers exploring the same maze
+     */
+    public boolean canShareMap() {
+        return setSharedMap != null;
+    }
+
+    /**
+     * Hands the controller a map shared with other controllers exploring the same maze, through its setSharedMap.
+     * @param map of the type setSharedMap takes
+     * @throws Throwable anything the controller throws, or UnsupportedOperationException if it has no setSharedMap
+     */
+    public void setSharedMap(Object map) throws Throwable {
+        if (setSharedMap == null) {
+            throw new UnsupportedOperationException(getName() + " has no setSharedMap method");
+        }
+        setSharedMap.invokeExact(instance, map);
+    }
+
+    /**
+     * Resets the controller for the next run, reporting the latency of the last run if recording.
+     * @throws Throwable
+     */
+    public void reset() throws Throwable {
+        if (reset != null) {
+            reset.invokeExact(instance);
+        }
+
+        if (latency != null) {
+            for (int i = 0; i < latency.length; i++) {
+                if (latency[i].getCount() != 0) {
+                    System.out.println("Latency run " + run + " " + modeNames[i] + ": " + latency[i].summary());
+                    latency[i].clear();
+                }
+            }
+        }
+        run++;
+    }
+
+    /**
+     * @return index of the current mode in getModeNames
+     * @throws Throwable
+     */
+    public int getMode() throws Throwable {
+        if (modeGetter == null) {
+            return 0;
+        }
+        if (explorerMode) {
+            return (int) modeGetter.invokeExact(instance) == 1 ? 0 : 1;
+        }
+        return ((Enum<?>) modeGetter.invokeExact(instance)).ordinal();
+    }
+
+    /**
+     * @return names of the modes the controller can be in
+     */
+    public String[] getModeNames() {
+        return modeNames;
+    }
+}
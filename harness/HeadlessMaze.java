@@ -0,0 +1,263 @@
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Maze for the headless harness, a bit set of open cells with a start and a target, see HeadlessRobot.
+ */
+public class HeadlessMaze {
+    public int width;
+    public int height;
+    public int startX;
+    public int startY;
+    public int targetX;
+    public int targetY;
+
+    // Bit y * width + x is set if the cell is open. On the heap, or a view of a mapped corpus (see MazeCorpus)
+    public LongBuffer open;
+
+    public HeadlessMaze(int width, int height) {
+        this(width, height, LongBuffer.wrap(new long[words(width, height)]));
+    }
+
+    public HeadlessMaze(int width, int height, LongBuffer open) {
+        this.width = width;
+        this.height = height;
+        this.open = open;
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @return number of longs in the grid of a maze
+     */
+    public static int words(int width, int height) {
+        return (int) (((long) width * height + 63) >> 6);
+    }
+
+    public boolean isOpen(int x, int y) {
+        int cell = y * width + x;
+        return (open.get(cell >> 6) & (1L << cell)) != 0;
+    }
+
+    private void carve(int x, int y) {
+        setOpen(x, y, true);
+    }
+
+    public void setOpen(int x, int y, boolean isOpen) {
+        int cell = y * width + x;
+        long word = open.get(cell >> 6);
+        open.put(cell >> 6, isOpen ? word | (1L << cell) : word & ~(1L << cell));
+    }
+
+    /**
+     * @return copy of the maze with its grid on the heap, which can be changed
+     */
+    public HeadlessMaze copy() {
+        LongBuffer grid = LongBuffer.allocate(open.capacity());
+        for (int i = 0; i < grid.capacity(); i++) {
+            grid.put(i, open.get(i));
+        }
+        HeadlessMaze maze = new HeadlessMaze(width, height, grid);
+        maze.startX = startX;
+        maze.startY = startY;
+        maze.targetX = targetX;
+        maze.targetY = targetY;
+        return maze;
+    }
+
+    /**
+     * Breadth first search over the open cells.
+     * @param x
+     * @param y
+     * @return steps from every cell to (x, y), -1 where it cannot be reached
+     */
+    public int[] distancesTo(int x, int y) {
+        int[] distance = new int[width * height];
+        Arrays.fill(distance, -1);
+        int[] queue = new int[width * height];
+        int tail = 0;
+        distance[y * width + x] = 0;
+        queue[tail++] = y * width + x;
+        for (int head = 0; head < tail; head++) {
+            int cell = queue[head];
+            for (int i = 0; i < 4; i++) {
+                int nx = cell % width + HeadlessRobot.DX[i];
+                int ny = cell / width + HeadlessRobot.DY[i];
+                if (nx >= 0 && ny >= 0 && nx < width && ny < height && isOpen(nx, ny) && distance[ny * width + nx] == -1) {
+                    distance[ny * width + nx] = distance[cell] + 1;
+                    queue[tail++] = ny * width + nx;
+                }
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Breadth first search from the start over the bit grid, stopping at the target, with the cells reached kept as
+     * bits too. This is the fewest steps any controller can take, to measure runs against.
+     * @return steps on a shortest path from the start to the target, -1 if it cannot be reached
+     */
+    public int shortestPath() {
+        int start = startY * width + startX;
+        int target = targetY * width + targetX;
+        long[] reached = new long[words(width, height)];
+        int[] queue = new int[width * height];
+        int tail = 0;
+        reached[start >> 6] |= 1L << start;
+        queue[tail++] = start;
+
+        // Take the queue a level at a time, so the level is the distance
+        int head = 0;
+        for (int level = 0; head < tail; level++) {
+            int levelEnd = tail;
+            for (; head < levelEnd; head++) {
+                int cell = queue[head];
+                if (cell == target) {
+                    return level;
+                }
+                int x = cell % width;
+                for (int i = 0; i < 4; i++) {
+                    int nx = x + HeadlessRobot.DX[i];
+                    int next = cell + HeadlessRobot.DY[i] * width + HeadlessRobot.DX[i];
+                    if (nx < 0 || nx >= width || next < 0 || next >= width * height
+                            || (reached[next >> 6] & (1L << next)) != 0 || (open.get(next >> 6) & (1L << next)) == 0) {
+                        continue;
+                    }
+                    reached[next >> 6] |= 1L << next;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the shortest path of every maze, spreading the mazes over threads.
+     * @param mazes
+     * @param threads
+     * @return steps on a shortest path from the start to the target of each maze, -1 where it cannot be reached
+     * @throws InterruptedException
+     */
+    public static int[] shortestPaths(HeadlessMaze[] mazes, int threads) throws InterruptedException {
+        int[] lengths = new int[mazes.length];
+        AtomicInteger next = new AtomicInteger();
+        Thread[] workers = new Thread[Math.max(1, Math.min(threads, mazes.length))];
+        for (int t = 0; t < workers.length; t++) {
+            workers[t] = new Thread(() -> {
+                for (int i = next.getAndIncrement(); i < mazes.length; i = next.getAndIncrement()) {
+                    lengths[i] = mazes[i].shortestPath();
+                }
+            }, "HeadlessMaze " + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return lengths;
+    }
+
+    /**
+     * Closes a random cell on a shortest path from the start to the target, as in a maze changing between runs,
+     * so long as the target can still be reached another way.
+     * @param random
+     * @return true if a cell was closed
+     */
+    public boolean blockShortestPath(Random random) {
+        int[] distance = distancesTo(targetX, targetY);
+        int length = distance[startY * width + startX];
+        if (length < 2) {
+            return false;
+        }
+
+        // Walk a shortest path from the start, then try its cells in random order
+        int[] path = new int[length - 1];
+        int cell = startY * width + startX;
+        for (int i = 0; i < path.length; i++) {
+            for (int d = 0; d < 4; d++) {
+                int next = cell + HeadlessRobot.DY[d] * width + HeadlessRobot.DX[d];
+                if (isOpen(next % width, next / width) && distance[next] == distance[cell] - 1) {
+                    cell = next;
+                    break;
+                }
+            }
+            path[i] = cell;
+        }
+        for (int i = path.length - 1; i >= 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = path[i];
+            path[i] = path[j];
+            path[j] = t;
+
+            setOpen(path[i] % width, path[i] / width, false);
+            if (distancesTo(targetX, targetY)[startY * width + startX] != -1) {
+                return true;
+            }
+            setOpen(path[i] % width, path[i] / width, true);
+        }
+        return false;
+    }
+
+    /**
+     * Generates a maze like those of the environment, by depth first carving with random walls knocked out to add
+     * loops. The start and target are random cells of the carved grid.
+     * @param width odd number of cells including the outer wall
+     * @param height odd number of cells including the outer wall
+     * @param loopFraction fraction of cells to open after carving
+     * @param seed
+     * @return HeadlessMaze
+     */
+    public static HeadlessMaze generate(int width, int height, double loopFraction, long seed) {
+        Random random = new Random(seed);
+        HeadlessMaze maze = new HeadlessMaze(width, height);
+
+        // Carve from (1, 1) with an explicit stack
+        int[] stack = new int[width * height / 2 + 1];
+        int size = 0;
+        stack[size++] = width + 1;
+        maze.carve(1, 1);
+        int[] order = {0, 1, 2, 3};
+        while (size > 0) {
+            int x = stack[size - 1] % width;
+            int y = stack[size - 1] / width;
+
+            for (int i = 3; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int t = order[i];
+                order[i] = order[j];
+                order[j] = t;
+            }
+
+            boolean carved = false;
+            for (int i : order) {
+                int nx = x + 2 * HeadlessRobot.DX[i];
+                int ny = y + 2 * HeadlessRobot.DY[i];
+                if (nx > 0 && ny > 0 && nx < width - 1 && ny < height - 1 && !maze.isOpen(nx, ny)) {
+                    maze.carve(x + HeadlessRobot.DX[i], y + HeadlessRobot.DY[i]);
+                    maze.carve(nx, ny);
+                    stack[size++] = ny * width + nx;
+                    carved = true;
+                    break;
+                }
+            }
+            if (!carved) {
+                size--;
+            }
+        }
+
+        long knockouts = (long) (loopFraction * width * height);
+        for (long i = 0; i < knockouts; i++) {
+            maze.carve(1 + random.nextInt(width - 2), 1 + random.nextInt(height - 2));
+        }
+
+        do {
+            maze.startX = 1 + 2 * random.nextInt((width - 1) / 2);
+            maze.startY = 1 + 2 * random.nextInt((height - 1) / 2);
+            maze.targetX = 1 + 2 * random.nextInt((width - 1) / 2);
+            maze.targetY = 1 + 2 * random.nextInt((height - 1) / 2);
+        } while (maze.startX == maze.targetX && maze.startY == maze.targetY);
+        return maze;
+    }
+}
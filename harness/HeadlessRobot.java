@@ -0,0 +1,122 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.awt.Point;
+import java.util.Arrays;
+
+
+/**
+ * Robot in a generated maze with no environment around it, for running controllers as fast as they go. The maze and
+ * the cells visited are bit sets, so a look is a shift and a mask.
+ */
+public class HeadlessRobot implements IRobot {
+    public final static int[] DX = {0, 1, 0, -1};
+    public final static int[] DY = {-1, 0, 1, 0};
+
+    private HeadlessMaze maze;
+    private long[] beenBefore;
+
+    private int x;
+    private int y;
+    private int heading = IRobot.NORTH;
+    private int runs = 0;
+    private int steps = 0;
+    private int collisions = 0;
+
+    public HeadlessRobot(HeadlessMaze maze) {
+        this.maze = maze;
+        beenBefore = new long[maze.open.capacity()];
+        x = maze.startX;
+        y = maze.startY;
+    }
+
+    /**
+     * Copies the robot, where it is, where it has been and its counters, in the same maze.
+     * @return HeadlessRobot
+     */
+    public HeadlessRobot copy() {
+        HeadlessRobot robot = new HeadlessRobot(maze);
+        robot.beenBefore = beenBefore.clone();
+        robot.x = x;
+        robot.y = y;
+        robot.heading = heading;
+        robot.runs = runs;
+        robot.steps = steps;
+        robot.collisions = collisions;
+        return robot;
+    }
+
+    /**
+     * @return true if the robot is on the target
+     */
+    public boolean atTarget() {
+        return x == maze.targetX && y == maze.targetY;
+    }
+
+    public void advance() {
+        int d = heading - IRobot.NORTH;
+        if (maze.isOpen(x + DX[d], y + DY[d])) {
+            int cell = y * maze.width + x;
+            beenBefore[cell >> 6] |= 1L << cell;
+            x += DX[d];
+            y += DY[d];
+        } else {
+            collisions++;
+        }
+        steps++;
+    }
+
+    public int look(int direction) {
+        int d = (heading - IRobot.NORTH + direction - IRobot.AHEAD) % 4;
+        int nx = x + DX[d];
+        int ny = y + DY[d];
+        if (!maze.isOpen(nx, ny)) {
+            return IRobot.WALL;
+        }
+        int cell = ny * maze.width + nx;
+        return (beenBefore[cell >> 6] & (1L << cell)) != 0 ? IRobot.BEENBEFORE : IRobot.PASSAGE;
+    }
+
+    public int getHeading() {
+        return heading;
+    }
+
+    public void setHeading(int heading) {
+        this.heading = heading;
+    }
+
+    public void face(int direction) {
+        heading = IRobot.NORTH + (heading - IRobot.NORTH + direction - IRobot.AHEAD) % 4;
+    }
+
+    public Point getLocation() {
+        return new Point(x, y);
+    }
+
+    public Point getTargetLocation() {
+        return new Point(maze.targetX, maze.targetY);
+    }
+
+    public int getRuns() {
+        return runs;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    public int getCollisions() {
+        return collisions;
+    }
+
+    /**
+     * Puts the robot back at the start for the next run, as the environment does when the target is reached.
+     */
+    public void reset() {
+        x = maze.startX;
+        y = maze.startY;
+        heading = IRobot.NORTH;
+        steps = 0;
+        collisions = 0;
+        Arrays.fill(beenBefore, 0);
+        runs++;
+    }
+}
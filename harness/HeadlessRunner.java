@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+
+/**
+ * Runs a controller through mazes with no environment, as fast as it goes, to measure simulated steps per
+ * second. Controllers with controlRobotBatch (see Controller) decide every step they can without sensing in one call,
+ * and the runner takes those steps in a tight loop, reporting how many it took, before calling back. That is compared
+ * against one call per step.
+ * Usage: java HeadlessRunner controllerClass [mazes|directory|corpus] [size] [runs] [loopFraction]
+ * runs through that many generated mazes, the .maze files of a directory (see MazeLoader) or a corpus file (see
+ * MazeCorpus). With -Dharness.blockPerRun=n the maze changes between runs, closing n cells on a shortest path to the
+ * target while leaving it reachable. With -Dharness.heatmap=prefix the steps of every run are counted by cell and mode
+ * (see VisitHeatmap) and written to prefix.mazeN.runM.* at the end of the run.
+ * See OptimalityGap for the steps of runs against the shortest path.
+ */
+public class HeadlessRunner {
+    // Most steps a controller can hand over in one call
+    public final static int MAX_MOVES = 4096;
+
+    private Controller controller;
+    private int[] moves = new int[MAX_MOVES];
+    private int blockPerRun = Integer.getInteger("harness.blockPerRun", 0);
+    private String heatmapPrefix = System.getProperty("harness.heatmap");
+    private int mazesRun = 0;
+
+    // Steps and calls to the controller, of first runs and of the runs after
+    public long[] steps = new long[2];
+    public long[] calls = new long[2];
+
+    // Shortest path of every run of the last maze run, filled in if enabled, for when the maze changes between runs
+    public int[] shortestPaths;
+    private boolean measureShortestPaths = false;
+
+    public HeadlessRunner(Controller controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * Finds the shortest path at the start of every run, after any cells are closed, into shortestPaths.
+     * It is not part of the steps per second, but does slow the runs down.
+     * @param enabled
+     */
+    public void setShortestPaths(boolean enabled) {
+        measureShortestPaths = enabled;
+    }
+
+    /**
+     * Runs a new controller through a maze, resetting it between runs as the environment does.
+     * A run ends at the target, or after 100 steps per cell if the controller never gets there.
+     * @param maze
+     * @param runs
+     * @param batch if false every step goes through controlRobot
+     * @return steps of every run
+     * @throws Throwable anything the controller throws
+     */
+    public long[] run(HeadlessMaze maze, int runs, boolean batch) throws Throwable {
+        controller.newInstance();
+        Random random = new Random(maze.startY * maze.width + maze.startX);
+        if (blockPerRun > 0) {
+            maze = maze.copy();
+        }
+        HeadlessRobot robot = new HeadlessRobot(maze);
+        long limit = 100L * maze.width * maze.height;
+        VisitHeatmap heatmap = null;
+        if (heatmapPrefix != null) {
+            heatmap = new VisitHeatmap(maze.width, maze.height, controller.getModeNames());
+        }
+        controller.setHeatmap(heatmap);
+        long[] runSteps = new long[runs];
+        shortestPaths = measureShortestPaths ? new int[runs] : null;
+
+        for (int run = 0; run < runs; run++) {
+            int later = run == 0 ? 0 : 1;
+            for (int i = 0; i < blockPerRun && run > 0; i++) {
+                maze.blockShortestPath(random);
+            }
+            if (measureShortestPaths) {
+                shortestPaths[run] = maze.shortestPath();
+            }
+
+            while (!robot.atTarget() && robot.getSteps() < limit) {
+                int count = 0;
+                if (batch) {
+                    count = controller.controlRobotBatch(robot, moves);
+                } else {
+                    controller.controlRobot(robot);
+                }
+                robot.advance();
+                calls[later]++;
+
+                // Hand back to the controller at the target, or if a wall has appeared in the way
+                int collisions = robot.getCollisions();
+                int taken = 0;
+                int mode = heatmap == null || count == 0 ? 0 : controller.getMode();
+                while (taken < count && !robot.atTarget() && robot.getCollisions() == collisions) {
+                    if (heatmap != null) {
+                        heatmap.visit(mode, robot.getLocation().x, robot.getLocation().y);
+                    }
+                    robot.setHeading(moves[taken++]);
+                    robot.advance();
+                }
+                if (count != 0) {
+                    controller.batchTaken(taken);
+                }
+            }
+            runSteps[run] = robot.getSteps();
+            steps[later] += robot.getSteps();
+            if (heatmap != null) {
+                exportHeatmap(heatmap, heatmapPrefix + ".maze" + mazesRun + ".run" + run);
+            }
+            controller.reset();
+            robot.reset();
+        }
+        controller.setHeatmap(null);
+        mazesRun++;
+        return runSteps;
+    }
+
+    /**
+     * Writes the heatmap of a run and reports its steps per mode, then clears it for the next run.
+     * @param heatmap
+     * @param prefix
+     * @throws IOException
+     */
+    private static void exportHeatmap(VisitHeatmap heatmap, String prefix) throws IOException {
+        heatmap.export(prefix);
+        StringBuilder line = new StringBuilder(prefix + ":");
+        for (int mode = 0; mode < heatmap.modeNames.length; mode++) {
+            line.append(" ").append(heatmap.modeNames[mode]).append(" ").append(heatmap.total(mode));
+        }
+        System.out.println(line + " steps");
+        heatmap.clear();
+    }
+
+    public static void main(String[] args) throws Throwable {
+        if (args.length < 1) {
+            System.out.println("Usage: java HeadlessRunner controllerClass [mazes|directory|corpus] [size] [runs] [loopFraction]");
+            return;
+        }
+        Path corpus = args.length > 1 ? Paths.get(args[1]) : null;
+        boolean loaded = corpus != null && Files.exists(corpus);
+        int mazes = args.length > 1 && !loaded ? Integer.parseInt(args[1]) : 200;
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 101;
+        int runs = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        double loopFraction = args.length > 4 ? Double.parseDouble(args[4]) : 0.05;
+
+        Controller controller = Controller.load(args[0]);
+        if (!controller.canBatch()) {
+            System.out.println(args[0] + " has no controlRobotBatch, so it takes one step per call either way");
+        }
+        HeadlessMaze[] corpusMazes;
+        if (loaded && Files.isDirectory(corpus)) {
+            corpusMazes = MazeLoader.loadDirectory(corpus, Runtime.getRuntime().availableProcessors());
+        } else if (loaded) {
+            MazeCorpus mapped = MazeCorpus.open(corpus);
+            corpusMazes = new HeadlessMaze[mapped.size()];
+            for (int i = 0; i < corpusMazes.length; i++) {
+                corpusMazes[i] = mapped.get(i);
+            }
+        } else {
+            corpusMazes = new HeadlessMaze[mazes];
+            for (int i = 0; i < mazes; i++) {
+                corpusMazes[i] = HeadlessMaze.generate(size, size, loopFraction, i);
+            }
+        }
+
+        // Silence what controllers print every run
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // Warm up both ways, then time them in turn on the same mazes
+        for (boolean batch : new boolean[] {false, true, false, true}) {
+            HeadlessRunner runner = new HeadlessRunner(controller);
+            long start = System.nanoTime();
+            for (HeadlessMaze maze : corpusMazes) {
+                runner.run(maze, runs, batch);
+            }
+            long time = System.nanoTime() - start;
+
+            long steps = runner.steps[0] + runner.steps[1];
+            out.println((batch ? "Batched:     " : "Single step: ") + String.format("%.2f", steps * 1e3 / time)
+                + " M steps/s, " + steps + " steps. Steps per call: first runs "
+                + String.format("%.1f", (double) runner.steps[0] / Math.max(1, runner.calls[0])) + ", later runs "
+                + String.format("%.1f", (double) runner.steps[1] / Math.max(1, runner.calls[1])) + ". Later runs "
+                + runner.steps[1] / Math.max(1, (long) corpusMazes.length * (runs - 1)) + " steps each");
+        }
+        System.setOut(out);
+        if (System.getProperty("harness.heatmap") != null) {
+            out.println("Heatmaps of every run written to " + System.getProperty("harness.heatmap") + ".maze*");
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.Arrays;
+
+
+/**
+ * Histogram of latencies in nanoseconds with buckets growing in size with the value, as in HdrHistogram, so it covers
+ * nanoseconds to hours in a fixed array with under 2% error. Recording is a few shifts and an increment, and never
+ * allocates.
+ */
+public class LatencyHistogram {
+    // Values below 128 have a bucket each, above that every power of two is split into 64 buckets
+    private final static int EXACT = 128;
+    private final static int SUB_BUCKETS = 64;
+    private final static int SUB_BUCKET_BITS = 6;
+
+    private long[] counts = new long[EXACT + 56 * SUB_BUCKETS];
+    private long count = 0;
+    private long max = 0;
+
+    /**
+     * @param nanos latency, negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[bucketOf(value)]++;
+        count++;
+        max = Math.max(max, value);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) (value >> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @param bucket
+     * @return largest value counted in the bucket
+     */
+    private static long highestValueOf(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+        int shift = (bucket - EXACT) / SUB_BUCKETS + 1;
+        long sub = (bucket - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+        return (sub << shift) + (1L << shift) - 1;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return latency that the percentile of recorded latencies are at or below, to within the bucket size
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+    }
+
+    /**
+     * @return count, p50, p99, p99.9 and max
+     */
+    public String summary() {
+        return count + " steps, p50 " + getValueAtPercentile(50) + " ns, p99 " + getValueAtPercentile(99) + " ns, p99.9 "
+            + getValueAtPercentile(99.9) + " ns, max " + max + " ns";
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Many mazes in one file, memory mapped so any of them is read in constant time without copying its grid onto the
+ * heap. The mazes share the mapping, so threads running different mazes of a corpus share one copy of it.
+ * The file is big endian: the magic number, version and maze count, padded to 8 bytes, then the file offset of every
+ * maze, then the mazes. A maze is its width, height, start and target as ints, followed by its grid as the longs of
+ * HeadlessMaze.
+ * Usage: java MazeCorpus pack directory corpus
+ * packs the .maze files of a directory (see MazeLoader), and
+ * java MazeCorpus corpus
+ * times reading every maze of a corpus.
+ */
+public class MazeCorpus {
+    public final static int MAGIC = 0x47464D43;  // "GFMC"
+    public final static int VERSION = 1;
+    public final static int HEADER_BYTES = 16;
+    public final static int MAZE_HEADER_BYTES = 24;
+
+    // Mapped a window at a time, each holding whole mazes
+    private final static long WINDOW = 1L << 30;
+
+    private MappedByteBuffer[] windows;
+
+    // Per maze: the window holding it and its position in the window
+    private int[] windowOf;
+    private int[] positionOf;
+
+    /**
+     * Maps a corpus file. The mapping stays valid after the file is closed.
+     * @param path
+     * @return MazeCorpus
+     * @throws IOException if the file cannot be read or is not a maze corpus
+     */
+    public static MazeCorpus open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException(path + " is too short to be a maze corpus");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(path + " is not a version " + VERSION + " maze corpus");
+            }
+            int count = header.getInt();
+
+            long[] offsets = new long[count + 1];
+            LongBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, 8L * count).asLongBuffer();
+            index.get(offsets, 0, count);
+            offsets[count] = size;
+
+            for (int i = 0; i < count; i++) {
+                if (offsets[i] < HEADER_BYTES + 8L * count || offsets[i + 1] - offsets[i] > WINDOW) {
+                    throw new IOException(path + " maze " + i + " is out of place or larger than " + WINDOW + " bytes");
+                }
+            }
+
+            // Start a new window at the first maze that would not fit in the current one
+            MazeCorpus corpus = new MazeCorpus();
+            corpus.windowOf = new int[count];
+            corpus.positionOf = new int[count];
+            MappedByteBuffer[] windows = new MappedByteBuffer[Math.max(1, count)];
+            int windowCount = 0;
+            int first = 0;
+            for (int i = 0; i <= count; i++) {
+                if (i == count || offsets[i + 1] - offsets[first] > WINDOW) {
+                    if (i > first) {
+                        windows[windowCount] = channel.map(FileChannel.MapMode.READ_ONLY, offsets[first], offsets[i] - offsets[first]);
+                        for (int j = first; j < i; j++) {
+                            corpus.windowOf[j] = windowCount;
+                            corpus.positionOf[j] = (int) (offsets[j] - offsets[first]);
+                        }
+                        windowCount++;
+                    }
+                    first = i;
+                }
+            }
+            corpus.windows = Arrays.copyOf(windows, windowCount);
+            return corpus;
+        }
+    }
+
+    /**
+     * @return number of mazes
+     */
+    public int size() {
+        return windowOf.length;
+    }
+
+    /**
+     * Reads a maze, whose grid is a view of the mapping. Safe to call from many threads at once.
+     * @param i
+     * @return HeadlessMaze
+     */
+    public HeadlessMaze get(int i) {
+        MappedByteBuffer window = windows[windowOf[i]];
+        int position = positionOf[i];
+        int width = window.getInt(position);
+        int height = window.getInt(position + 4);
+        LongBuffer open = window.slice(position + MAZE_HEADER_BYTES, 8 * HeadlessMaze.words(width, height)).asLongBuffer();
+
+        HeadlessMaze maze = new HeadlessMaze(width, height, open);
+        maze.startX = window.getInt(position + 8);
+        maze.startY = window.getInt(position + 12);
+        maze.targetX = window.getInt(position + 16);
+        maze.targetY = window.getInt(position + 20);
+        return maze;
+    }
+
+    /**
+     * Writes mazes as a corpus.
+     * @param mazes
+     * @param path
+     * @throws IOException
+     */
+    public static void write(HeadlessMaze[] mazes, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer index = ByteBuffer.allocate(HEADER_BYTES + 8 * mazes.length);
+            index.putInt(MAGIC).putInt(VERSION).putInt(mazes.length).putInt(0);
+            long offset = index.capacity();
+            for (HeadlessMaze maze : mazes) {
+                index.putLong(offset);
+                offset += MAZE_HEADER_BYTES + 8L * HeadlessMaze.words(maze.width, maze.height);
+            }
+            writeFully(channel, index.flip());
+
+            for (HeadlessMaze maze : mazes) {
+                int words = HeadlessMaze.words(maze.width, maze.height);
+                ByteBuffer buffer = ByteBuffer.allocate(MAZE_HEADER_BYTES + 8 * words);
+                buffer.putInt(maze.width).putInt(maze.height).putInt(maze.startX).putInt(maze.startY)
+                    .putInt(maze.targetX).putInt(maze.targetY);
+                for (int w = 0; w < words; w++) {
+                    buffer.putLong(maze.open.get(w));
+                }
+                writeFully(channel, buffer.flip());
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length >= 3 && args[0].equals("pack")) {
+            HeadlessMaze[] mazes = MazeLoader.loadDirectory(Paths.get(args[1]), Runtime.getRuntime().availableProcessors());
+            write(mazes, Paths.get(args[2]));
+            System.out.println("Packed " + mazes.length + " mazes into " + args[2] + ", " + Files.size(Paths.get(args[2])) + " bytes");
+            return;
+        }
+        if (args.length < 1) {
+            System.out.println("Usage: java MazeCorpus pack directory corpus");
+            System.out.println("       java MazeCorpus corpus");
+            return;
+        }
+
+        long start = System.nanoTime();
+        MazeCorpus corpus = open(Paths.get(args[0]));
+        long opened = System.nanoTime() - start;
+
+        // Touch every word, so the time includes paging the corpus in
+        long openCells = 0;
+        for (int i = 0; i < corpus.size(); i++) {
+            HeadlessMaze maze = corpus.get(i);
+            for (int w = 0; w < maze.open.capacity(); w++) {
+                openCells += Long.bitCount(maze.open.get(w));
+            }
+        }
+        long time = System.nanoTime() - start;
+        System.out.println("Opened " + corpus.size() + " mazes in " + String.format("%.1f", opened / 1e6) + " ms, read "
+            + openCells + " open cells in " + String.format("%.1f", time / 1e6) + " ms");
+    }
+}
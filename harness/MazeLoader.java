@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Loads maze files into the bit packed grid of HeadlessMaze, for running controllers over a corpus of mazes.
+ * A maze file is text with one line per row of cells, all the same length: '#' is a wall, 'S' the start, 'T' the
+ * target and anything else a passage. Lines end with \n or \r\n, and blank lines at the end are ignored.
+ * Files are read through a channel in large blocks and parsed byte by byte into whole words of the grid, without
+ * building a String per line, so a 100 million cell maze loads in about the time it takes to read it.
+ * Usage: java MazeLoader file|directory [threads]
+ * times loading a maze, or every .maze file of a directory, and
+ * java MazeLoader generate directory count size [loopFraction]
+ * writes a corpus of generated mazes.
+ */
+public class MazeLoader {
+    public final static String SUFFIX = ".maze";
+    private final static int BLOCK_SIZE = 1 << 20;
+
+    /**
+     * @param path
+     * @return HeadlessMaze
+     * @throws IOException if the file cannot be read, its rows differ in length or it has no start or target
+     */
+    public static HeadlessMaze load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BLOCK_SIZE, Math.max(1, channel.size())));
+            byte[] bytes = buffer.array();
+            int length = fill(channel, buffer);
+
+            // The first line gives the width, and counting the lines the height
+            int width = 0;
+            while (width < length && bytes[width] != '\n' && bytes[width] != '\r') {
+                width++;
+            }
+            if (width == 0) {
+                throw new IOException(path + " has no maze on its first line");
+            }
+            long height = countRows(channel, buffer, length);
+            if ((long) width * height > Integer.MAX_VALUE) {
+                throw new IOException(path + " has more cells than fit in a grid");
+            }
+
+            HeadlessMaze maze = new HeadlessMaze(width, (int) height);
+            maze.startX = -1;
+            maze.targetX = -1;
+
+            // Open cells are gathered into a word, written out when the next cell is in a new word
+            long word = 0;
+            int cell = 0;
+            int x = 0;
+            int y = 0;
+            while (length > 0) {
+                for (int i = 0; i < length; i++) {
+                    byte b = bytes[i];
+                    if (b == '\n') {
+                        if (x == 0 && y == height) {
+                            continue;  // Blank line after the last row
+                        }
+                        if (x != width) {
+                            throw new IOException(path + " row " + y + " is " + x + " cells long, not " + width);
+                        }
+                        x = 0;
+                        y++;
+                        continue;
+                    }
+                    if (b == '\r') {
+                        continue;
+                    }
+                    if (x == width || y == height) {
+                        throw new IOException(path + " row " + y + " is longer than " + width + " cells");
+                    }
+
+                    if (b != '#') {
+                        word |= 1L << cell;
+                        if (b == 'S') {
+                            maze.startX = x;
+                            maze.startY = y;
+                        } else if (b == 'T') {
+                            maze.targetX = x;
+                            maze.targetY = y;
+                        }
+                    }
+                    x++;
+                    cell++;
+                    if ((cell & 63) == 0) {
+                        maze.open.put((cell >> 6) - 1, word);
+                        word = 0;
+                    }
+                }
+                length = fill(channel, buffer);
+            }
+            if ((cell & 63) != 0) {
+                maze.open.put(cell >> 6, word);
+            }
+
+            // The last line may have no line ending
+            if (x == width) {
+                y++;
+            }
+            if (x != 0 && x != width || y != height) {
+                throw new IOException(path + " ends part way through row " + y);
+            }
+            if (maze.startX == -1 || maze.targetX == -1) {
+                throw new IOException(path + " has no start S or target T");
+            }
+            return maze;
+        }
+    }
+
+    /**
+     * Counts the lines of a file that are not blank, leaving the first block read again in the buffer.
+     * @param channel positioned after the first block
+     * @param buffer holding the first block
+     * @param length bytes of the first block
+     * @return rows of the maze
+     * @throws IOException
+     */
+    private static long countRows(FileChannel channel, ByteBuffer buffer, int length) throws IOException {
+        byte[] bytes = buffer.array();
+        long rows = 0;
+        boolean blank = true;
+        while (length > 0) {
+            for (int i = 0; i < length; i++) {
+                byte b = bytes[i];
+                if (b == '\n') {
+                    rows += blank ? 0 : 1;
+                    blank = true;
+                } else if (b != '\r') {
+                    blank = false;
+                }
+            }
+            length = fill(channel, buffer);
+        }
+        rows += blank ? 0 : 1;  // The last line may have no line ending
+
+        channel.position(0);
+        fill(channel, buffer);
+        return rows;
+    }
+
+    /**
+     * Reads the next block of the channel into the start of the buffer.
+     * @param channel
+     * @param buffer
+     * @return bytes read, 0 at the end of the channel
+     * @throws IOException
+     */
+    private static int fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            // Keep reading until the block is full or the file ends
+        }
+        return buffer.position();
+    }
+
+    /**
+     * Loads every .maze file of a directory, spreading the files over threads.
+     * @param directory
+     * @param threads
+     * @return mazes in file name order
+     * @throws IOException if any file cannot be loaded
+     * @throws InterruptedException
+     */
+    public static HeadlessMaze[] loadDirectory(Path directory, int threads) throws IOException, InterruptedException {
+        ArrayList<Path> paths = new ArrayList<Path>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : files) {
+                paths.add(path);
+            }
+        }
+        Collections.sort(paths);
+
+        HeadlessMaze[] mazes = new HeadlessMaze[paths.size()];
+        IOException[] failure = new IOException[1];
+        AtomicInteger next = new AtomicInteger();
+        Thread[] workers = new Thread[Math.max(1, Math.min(threads, paths.size()))];
+        for (int t = 0; t < workers.length; t++) {
+            workers[t] = new Thread(() -> {
+                for (int i = next.getAndIncrement(); i < mazes.length; i = next.getAndIncrement()) {
+                    try {
+                        mazes[i] = load(paths.get(i));
+                    } catch (IOException e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                        next.set(mazes.length);
+                    }
+                }
+            }, "MazeLoader " + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return mazes;
+    }
+
+    /**
+     * Writes a maze in the format load reads.
+     * @param maze
+     * @param path
+     * @throws IOException
+     */
+    public static void write(HeadlessMaze maze, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(BLOCK_SIZE, maze.width + 1));
+            for (int y = 0; y < maze.height; y++) {
+                if (buffer.remaining() < maze.width + 1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                for (int x = 0; x < maze.width; x++) {
+                    byte b = (byte) (maze.isOpen(x, y) ? ' ' : '#');
+                    if (x == maze.startX && y == maze.startY) {
+                        b = 'S';
+                    } else if (x == maze.targetX && y == maze.targetY) {
+                        b = 'T';
+                    }
+                    buffer.put(b);
+                }
+                buffer.put((byte) '\n');
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length >= 4 && args[0].equals("generate")) {
+            Path directory = Paths.get(args[1]);
+            int count = Integer.parseInt(args[2]);
+            int size = Integer.parseInt(args[3]);
+            double loopFraction = args.length > 4 ? Double.parseDouble(args[4]) : 0.05;
+            Files.createDirectories(directory);
+            for (int i = 0; i < count; i++) {
+                write(HeadlessMaze.generate(size, size, loopFraction, i), directory.resolve(String.format("%06d", i) + SUFFIX));
+            }
+            System.out.println("Wrote " + count + " mazes of " + size + "x" + size + " to " + directory);
+            return;
+        }
+        if (args.length < 1) {
+            System.out.println("Usage: java MazeLoader file|directory [threads]");
+            System.out.println("       java MazeLoader generate directory count size [loopFraction]");
+            return;
+        }
+
+        Path path = Paths.get(args[0]);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        HeadlessMaze[] mazes = Files.isDirectory(path) ? loadDirectory(path, threads) : new HeadlessMaze[] {load(path)};
+        long time = System.nanoTime() - start;
+
+        long cells = 0;
+        for (HeadlessMaze maze : mazes) {
+            cells += (long) maze.width * maze.height;
+        }
+        System.out.println("Loaded " + mazes.length + " mazes, " + cells + " cells in " + String.format("%.1f", time / 1e6)
+            + " ms, " + String.format("%.1f", cells * 1e3 / time) + " M cells/s");
+    }
+}
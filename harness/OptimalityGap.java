@@ -0,0 +1,141 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+
+/**
+ * Measures how far controllers are from optimal, as the steps of every run over the steps of the shortest path from
+ * the start to the target, found by breadth first search of the whole maze (see HeadlessMaze.shortestPath). First
+ * runs, which have to explore, and later runs, which can follow a route, are reported apart, for every maze source
+ * and over all of them.
+ * Usage: java OptimalityGap controllerClass[,controllerClass...] [runs] [size] [loopFraction] [mazes|directory|corpus...]
+ * where each source is a number of generated mazes of that size, the .maze files of a directory (see MazeLoader) or a
+ * corpus file (see MazeCorpus). With -Dharness.blockPerRun=n the maze changes between runs as for HeadlessRunner, and
+ * every run is measured against the shortest path of the maze as it is then.
+ */
+public class OptimalityGap {
+    // Runs of one controller against the shortest path, first runs at 0 and later runs at 1
+    private static class Gap {
+        public double[] ratioSum = new double[2];
+        public double[] worst = new double[2];
+        public long[] runs = new long[2];
+        public long failed = 0;
+
+        public void record(int later, long steps, int shortest, long limit) {
+            if (steps >= limit) {
+                failed++;
+                return;
+            }
+            double ratio = (double) steps / shortest;
+            ratioSum[later] += ratio;
+            worst[later] = Math.max(worst[later], ratio);
+            runs[later]++;
+        }
+
+        public void add(Gap gap) {
+            for (int i = 0; i < 2; i++) {
+                ratioSum[i] += gap.ratioSum[i];
+                worst[i] = Math.max(worst[i], gap.worst[i]);
+                runs[i] += gap.runs[i];
+            }
+            failed += gap.failed;
+        }
+
+        public String summary() {
+            return String.format("first runs %6.2fx (worst %6.2fx), later runs %5.3fx (worst %5.2fx), %d runs failed",
+                ratioSum[0] / Math.max(1, runs[0]), worst[0], ratioSum[1] / Math.max(1, runs[1]), worst[1], failed);
+        }
+    }
+
+    /**
+     * @param source number of mazes to generate, directory or corpus file
+     * @param size
+     * @param loopFraction
+     * @return mazes of the source
+     * @throws Exception if the mazes cannot be loaded
+     */
+    private static HeadlessMaze[] load(String source, int size, double loopFraction) throws Exception {
+        Path path = Paths.get(source);
+        if (Files.isDirectory(path)) {
+            return MazeLoader.loadDirectory(path, Runtime.getRuntime().availableProcessors());
+        }
+        if (Files.exists(path)) {
+            MazeCorpus mapped = MazeCorpus.open(path);
+            HeadlessMaze[] mazes = new HeadlessMaze[mapped.size()];
+            for (int i = 0; i < mazes.length; i++) {
+                mazes[i] = mapped.get(i);
+            }
+            return mazes;
+        }
+        HeadlessMaze[] mazes = new HeadlessMaze[Integer.parseInt(source)];
+        for (int i = 0; i < mazes.length; i++) {
+            mazes[i] = HeadlessMaze.generate(size, size, loopFraction, i);
+        }
+        return mazes;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        if (args.length < 1) {
+            System.out.println("Usage: java OptimalityGap controllerClass[,controllerClass...] [runs] [size] [loopFraction] [mazes|directory|corpus...]");
+            return;
+        }
+        String[] names = args[0].split(",");
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 101;
+        double loopFraction = args.length > 3 ? Double.parseDouble(args[3]) : 0.05;
+        String[] sources = args.length > 4 ? Arrays.copyOfRange(args, 4, args.length) : new String[] {"200"};
+        boolean changing = Integer.getInteger("harness.blockPerRun", 0) > 0;
+
+        Controller[] controllers = new Controller[names.length];
+        for (int i = 0; i < names.length; i++) {
+            controllers[i] = Controller.load(names[i]);
+        }
+        Gap[] total = new Gap[names.length];
+        for (int i = 0; i < names.length; i++) {
+            total[i] = new Gap();
+        }
+
+        // Silence what controllers print every run
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        for (String source : sources) {
+            HeadlessMaze[] mazes = load(source, size, loopFraction);
+            long start = System.nanoTime();
+            int[] shortest = HeadlessMaze.shortestPaths(mazes, Runtime.getRuntime().availableProcessors());
+            long time = System.nanoTime() - start;
+            out.println(source + ": " + mazes.length + " mazes, shortest paths found in "
+                + String.format("%.1f", time / 1e6) + " ms");
+
+            for (int c = 0; c < controllers.length; c++) {
+                HeadlessRunner runner = new HeadlessRunner(controllers[c]);
+                runner.setShortestPaths(changing);
+                Gap gap = new Gap();
+                for (int i = 0; i < mazes.length; i++) {
+                    if (shortest[i] <= 0) {
+                        continue;  // Nothing to measure against
+                    }
+                    long limit = 100L * mazes[i].width * mazes[i].height;
+                    long[] runSteps = runner.run(mazes[i], runs, false);
+                    for (int run = 0; run < runs; run++) {
+                        int length = changing ? runner.shortestPaths[run] : shortest[i];
+                        gap.record(run == 0 ? 0 : 1, runSteps[run], length, limit);
+                    }
+                }
+                out.println(String.format("  %-16s %s", names[c], gap.summary()));
+                total[c].add(gap);
+            }
+        }
+
+        if (sources.length > 1) {
+            out.println("All sources:");
+            for (int c = 0; c < controllers.length; c++) {
+                out.println(String.format("  %-16s %s", names[c], total[c].summary()));
+            }
+        }
+        System.setOut(out);
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+
+/**
+ * Times a controller replaying a captured sensor stream, so changes to a controller are measured against the inputs of
+ * a real session. Capture one by running a controller with a StepRecorder, such as GrandFinale or coursework2 Ex3,
+ * through the harness with -Dharness.capture=file, see StepRecording.
+ * Controllers are loaded by name (see Controller), each compiled on its own with the IRobot stand-in here, e.g.
+ * javac -d out harness/uk/ac/warwick/dcs/maze/logic/IRobot.java harness/*.java coursework2/GrandFinale.java
+ */
+public class ReplayBenchmark {
+    private Controller controller;
+    private SensorStream stream;
+    private ReplayRobot robot;
+
+    public ReplayBenchmark(Controller controller, SensorStream stream) {
+        this.controller = controller;
+        this.stream = stream;
+        robot = new ReplayRobot(stream);
+    }
+
+    /**
+     * Replays every run of the stream through a new controller, resetting it between runs as the environment does.
+     * A run ends at the target, or after 10 times the captured steps if the controller never gets there.
+     * @return steps the controller took in each run
+     * @throws Throwable anything the controller throws
+     */
+    public long[] replay() throws Throwable {
+        controller.newInstance();
+        long[] runSteps = new long[stream.runCount];
+        robot.missedLooks = 0;
+
+        for (int run = 0; run < stream.runCount; run++) {
+            if (run > 0) {
+                controller.reset();
+            }
+            robot.startRun(run);
+            long limit = 10L * (stream.runEnd(run) - stream.runStart[run]);
+            while (!robot.atTarget() && runSteps[run] < limit) {
+                controller.controlRobot(robot);
+                robot.advance();
+                runSteps[run]++;
+            }
+        }
+        controller.reset();
+        return runSteps;
+    }
+
+    /**
+     * Usage: java ReplayBenchmark controllerClass capture [iterations] [warmupIterations]
+     * @param args
+     * @throws Throwable
+     */
+    public static void main(String[] args) throws Throwable {
+        if (args.length < 2) {
+            System.out.println("Usage: java ReplayBenchmark controllerClass capture [iterations] [warmupIterations]");
+            return;
+        }
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int warmup = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        SensorStream stream;
+        try {
+            stream = SensorStream.load(args[1]);
+        } catch (IOException e) {
+            System.out.println("Cannot load " + args[1] + ": " + e.getMessage());
+            return;
+        }
+        ReplayBenchmark benchmark = new ReplayBenchmark(Controller.load(args[0]), stream);
+        benchmark.controller.setLatencyRecording(false);
+        System.out.println(args[0] + ": replaying " + stream.stepCount + " steps over " + stream.runCount + " runs");
+
+        // Silence what controllers print every run while they are being timed
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        long[] runSteps = null;
+        for (int i = 0; i < warmup; i++) {
+            benchmark.replay();
+        }
+
+        long[] times = new long[iterations];
+        long totalSteps = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            runSteps = benchmark.replay();
+            times[i] = System.nanoTime() - start;
+            for (long steps : runSteps) {
+                totalSteps += steps;
+            }
+        }
+        System.setOut(out);
+
+        // Timed without the latency histograms, so replay once more with them if they are wanted
+        if (Boolean.getBoolean("harness.latency")) {
+            benchmark.controller.setLatencyRecording(true);
+            benchmark.replay();
+        }
+
+        // Time per step from the fastest, median and slowest replays, at the mean steps per replay
+        Arrays.sort(times);
+        double steps = Math.max(1.0, (double) totalSteps / iterations);
+        System.out.println("ns per step: min " + String.format("%.1f", times[0] / steps)
+            + ", median " + String.format("%.1f", times[iterations / 2] / steps)
+            + ", max " + String.format("%.1f", times[iterations - 1] / steps));
+
+        for (int run = 0; runSteps != null && run < stream.runCount; run++) {
+            System.out.println("Run " + stream.runNumber[run] + ": captured " + (stream.runEnd(run) - stream.runStart[run])
+                + " steps, last replay " + runSteps[run] + " steps");
+        }
+        System.out.println("Last replay: " + benchmark.robot.missedLooks + " looks at sides never captured");
+    }
+}
@@ -0,0 +1,160 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.awt.Point;
+import java.util.Arrays;
+
+
+/**
+ * Robot in the part of a maze seen in a captured session. Every wall and passage the captured controller looked at is
+ * rebuilt from the stream, so a controller replaying it senses what the captured one sensed, even where its random
+ * choices take it a different way. Looking at a side never captured finds a wall, and is counted.
+ */
+public class ReplayRobot implements IRobot {
+    public final static int[] DX = {0, 1, 0, -1};
+    public final static int[] DY = {-1, 0, 1, 0};
+
+    private SensorStream stream;
+    private int width;
+    private int height;
+
+    // Per cell, bits 0-3 are the sides seen and bits 4-7 the sides seen open, by absolute heading
+    private byte[] sides;
+    private boolean[] beenBefore;
+
+    private int run;
+    private int x;
+    private int y;
+    private int heading;
+    private int steps;
+    private int collisions;
+
+    public long missedLooks = 0;
+
+    public ReplayRobot(SensorStream stream) {
+        this.stream = stream;
+        for (int i = 0; i < stream.stepCount; i++) {
+            width = Math.max(width, stream.x[i] + 2);
+            height = Math.max(height, stream.y[i] + 2);
+        }
+        for (int i = 0; i < stream.runCount; i++) {
+            width = Math.max(width, stream.targetX[i] + 2);
+            height = Math.max(height, stream.targetY[i] + 2);
+        }
+        sides = new byte[width * height];
+        beenBefore = new boolean[width * height];
+
+        for (int i = 0; i < stream.stepCount; i++) {
+            for (int d = 0; d < 4; d++) {
+                int captured = (stream.looks[i] >> (4 * d)) & 0xF;
+                if (captured != 0) {
+                    // Captured as 1 + WALL - WALL
+                    see(stream.x[i], stream.y[i], d, captured != 1);
+                    see(stream.x[i] + DX[d], stream.y[i] + DY[d], (d + 2) % 4, captured != 1);
+                }
+            }
+        }
+    }
+
+    private void see(int cx, int cy, int d, boolean open) {
+        if (cx < 0 || cy < 0 || cx >= width || cy >= height) {
+            return;
+        }
+        sides[cy * width + cx] |= (1 << d) | (open ? 1 << (d + 4) : 0);
+    }
+
+    /**
+     * Places the robot at the start of a captured run, facing the way the captured robot did.
+     * @param run
+     */
+    public void startRun(int run) {
+        this.run = run;
+        int first = stream.runStart[run];
+        x = stream.x[first];
+        y = stream.y[first];
+        heading = IRobot.NORTH + stream.headingBefore[first];
+        steps = 0;
+        collisions = 0;
+        Arrays.fill(beenBefore, false);
+    }
+
+    /**
+     * @return width of the grid holding every cell of the capture
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the grid holding every cell of the capture
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return true if the robot is on the target of the run
+     */
+    public boolean atTarget() {
+        return x == stream.targetX[run] && y == stream.targetY[run];
+    }
+
+    public void advance() {
+        int d = heading - IRobot.NORTH;
+        if ((sides[y * width + x] & (1 << (d + 4))) != 0) {
+            beenBefore[y * width + x] = true;
+            x += DX[d];
+            y += DY[d];
+        } else {
+            collisions++;
+        }
+        steps++;
+    }
+
+    public int look(int direction) {
+        int d = (heading - IRobot.NORTH + direction - IRobot.AHEAD) % 4;
+        int cell = sides[y * width + x];
+        if ((cell & (1 << d)) == 0) {
+            missedLooks++;
+            return IRobot.WALL;
+        }
+        if ((cell & (1 << (d + 4))) == 0) {
+            return IRobot.WALL;
+        }
+        return beenBefore[(y + DY[d]) * width + x + DX[d]] ? IRobot.BEENBEFORE : IRobot.PASSAGE;
+    }
+
+    public int getHeading() {
+        return heading;
+    }
+
+    public void setHeading(int heading) {
+        this.heading = heading;
+    }
+
+    public void face(int direction) {
+        heading = IRobot.NORTH + (heading - IRobot.NORTH + direction - IRobot.AHEAD) % 4;
+    }
+
+    public Point getLocation() {
+        return new Point(x, y);
+    }
+
+    public Point getTargetLocation() {
+        return new Point(stream.targetX[run], stream.targetY[run]);
+    }
+
+    public int getRuns() {
+        return stream.runNumber[run];
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    public int getCollisions() {
+        return collisions;
+    }
+
+    public void reset() {
+        startRun(run);
+    }
+}
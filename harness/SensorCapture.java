@@ -0,0 +1,96 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+
+/**
+ * Writes what a controller sensed in every step to a file, for ReplayBenchmark. See StepRecording.
+ */
+public class SensorCapture {
+    // A run starts with RUN, getRuns(), and the target x and y. Every step is STEP, the location, the heading before
+    // and after controlRobot, and what look returned in each absolute direction, 4 bits each: 0 if not looked at,
+    // else 1 + WALL, PASSAGE or BEENBEFORE - WALL
+    public final static int MAGIC = 0x47465343;  // "GFSC"
+    public final static int VERSION = 1;
+    public final static int RUN = 1;
+    public final static int STEP = 2;
+
+    private DataOutputStream out;
+    private boolean newRun = true;
+    private int runSteps = 0;
+    private int x;
+    private int y;
+    private int heading;
+    private int looks;
+
+    public SensorCapture(String path) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * Called before the controller decides a step.
+     * @param robot
+     * @throws IOException
+     */
+    public void beginStep(IRobot robot) throws IOException {
+        if (newRun) {
+            out.writeByte(RUN);
+            out.writeInt(robot.getRuns());
+            out.writeInt(robot.getTargetLocation().x);
+            out.writeInt(robot.getTargetLocation().y);
+            newRun = false;
+            runSteps = 0;
+        }
+        x = robot.getLocation().x;
+        y = robot.getLocation().y;
+        heading = robot.getHeading();
+        looks = 0;
+    }
+
+    /**
+     * Called with the result of every look made while deciding the step.
+     * @param robot
+     * @param direction relative direction looked in
+     * @param result
+     */
+    public void recordLook(IRobot robot, int direction, int result) {
+        int absolute = (robot.getHeading() - IRobot.NORTH + direction - IRobot.AHEAD) % 4;
+        looks |= (1 + result - IRobot.WALL) << (4 * absolute);
+    }
+
+    /**
+     * Called once the controller has chosen the heading for the step.
+     * @param robot
+     * @throws IOException
+     */
+    public void endStep(IRobot robot) throws IOException {
+        out.writeByte(STEP);
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeByte(heading - IRobot.NORTH);
+        out.writeByte(robot.getHeading() - IRobot.NORTH);
+        out.writeShort(looks);
+        runSteps++;
+    }
+
+    /**
+     * Called when the controller is reset, so the next step starts a run. A reset before the first step of a run is
+     * part of that run.
+     * @throws IOException
+     */
+    public void endRun() throws IOException {
+        newRun = newRun || runSteps != 0;
+        out.flush();
+    }
+
+    /**
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * A sensor capture loaded into memory, see ReplayRobot.
+ */
+public class SensorStream {
+    public final static int MAGIC = SensorCapture.MAGIC;
+    public final static int VERSION = SensorCapture.VERSION;
+    public final static int RUN = SensorCapture.RUN;
+    public final static int STEP = SensorCapture.STEP;
+
+    public int runCount = 0;
+    public int stepCount = 0;
+
+    // Per run: index of its first step, getRuns() and the target
+    public int[] runStart = new int[16];
+    public int[] runNumber = new int[16];
+    public int[] targetX = new int[16];
+    public int[] targetY = new int[16];
+
+    // Per step: location, heading before and after the controller, and the looks packed 4 bits per absolute direction
+    public int[] x = new int[1024];
+    public int[] y = new int[1024];
+    public byte[] headingBefore = new byte[1024];
+    public byte[] headingAfter = new byte[1024];
+    public short[] looks = new short[1024];
+
+    /**
+     * Loads a whole capture into memory, so replaying it does no I/O.
+     * @param path
+     * @return SensorStream
+     * @throws IOException if the file cannot be read or is not a sensor capture
+     */
+    public static SensorStream load(String path) throws IOException {
+        SensorStream stream = new SensorStream();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(path + " is not a version " + VERSION + " sensor capture");
+            }
+
+            while (true) {
+                int record;
+                try {
+                    record = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (record == RUN) {
+                    stream.addRun(in.readInt(), in.readInt(), in.readInt());
+                } else if (record == STEP && stream.runCount > 0) {
+                    stream.addStep(in.readInt(), in.readInt(), in.readByte(), in.readByte(), in.readShort());
+                } else {
+                    throw new IOException(path + " has an unexpected record " + record + " after step " + stream.stepCount);
+                }
+            }
+        }
+        return stream;
+    }
+
+    private void addRun(int runs, int tx, int ty) {
+        if (runCount == runStart.length) {
+            runStart = Arrays.copyOf(runStart, 2 * runCount);
+            runNumber = Arrays.copyOf(runNumber, 2 * runCount);
+            targetX = Arrays.copyOf(targetX, 2 * runCount);
+            targetY = Arrays.copyOf(targetY, 2 * runCount);
+        }
+        runStart[runCount] = stepCount;
+        runNumber[runCount] = runs;
+        targetX[runCount] = tx;
+        targetY[runCount] = ty;
+        runCount++;
+    }
+
+    private void addStep(int sx, int sy, byte before, byte after, short stepLooks) {
+        if (stepCount == x.length) {
+            x = Arrays.copyOf(x, 2 * stepCount);
+            y = Arrays.copyOf(y, 2 * stepCount);
+            headingBefore = Arrays.copyOf(headingBefore, 2 * stepCount);
+            headingAfter = Arrays.copyOf(headingAfter, 2 * stepCount);
+            looks = Arrays.copyOf(looks, 2 * stepCount);
+        }
+        x[stepCount] = sx;
+        y[stepCount] = sy;
+        headingBefore[stepCount] = before;
+        headingAfter[stepCount] = after;
+        looks[stepCount] = stepLooks;
+        stepCount++;
+    }
+
+    /**
+     * @param run
+     * @return index one past the last step of the run
+     */
+    public int runEnd(int run) {
+        return run + 1 < runCount ? runStart[run + 1] : stepCount;
+    }
+}
@@ -0,0 +1,351 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.io.IOException;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+@Name("maze.ModeChange")
+@Label("Mode Change")
+@Category({"Maze", "Controller"})
+class ModeChangeEvent extends Event {
+    @Label("From")
+    public String from;
+
+    @Label("To")
+    public String to;
+
+    @Label("X")
+    public int x;
+
+    @Label("Y")
+    public int y;
+}
+
+
+@Name("maze.JunctionRecorded")
+@Label("Junction Recorded")
+@Description("A junction explored for the first time")
+@Category({"Maze", "Controller"})
+class JunctionRecordedEvent extends Event {
+    @Label("X")
+    public int x;
+
+    @Label("Y")
+    public int y;
+
+    @Label("Arrival Heading")
+    public int arrivalHeading;
+}
+
+
+@Name("maze.JunctionRevisit")
+@Label("Junction Revisit")
+@Description("An explored junction reached again while exploring, which turns the robot back")
+@Category({"Maze", "Controller"})
+class JunctionRevisitEvent extends Event {
+    @Label("X")
+    public int x;
+
+    @Label("Y")
+    public int y;
+}
+
+
+@Name("maze.RouteFallback")
+@Label("Route Fallback")
+@Description("A junction on the route with no usable exit heading, so the robot explores instead")
+@Category({"Maze", "Controller"})
+class RouteFallbackEvent extends Event {
+    @Label("X")
+    public int x;
+
+    @Label("Y")
+    public int y;
+
+    @Label("Exit Heading")
+    public int exitHeading;
+}
+
+
+@Name("maze.WallAppeared")
+@Label("Wall Appeared")
+@Description("The robot ran into a wall where the map had an exit, and the distance field was repaired around it")
+@Category({"Maze", "Controller"})
+class WallAppearedEvent extends Event {
+    @Label("X")
+    public int x;
+
+    @Label("Y")
+    public int y;
+
+    @Label("Heading")
+    public int heading;
+
+    @Label("Cells Replanned")
+    public int cellsReplanned;
+}
+
+
+/**
+ * What the harness records of a controller through the StepRecorder interface the controller declares, which
+ * Controller implements by calling the methods here of the same name and parameters. A controller calls the hooks of
+ * its StepRecorder only once one is set with setStepRecorder, so nothing is recorded in the maze environment.
+ * With -Dharness.trace=file every step is written to a step trace, see TraceReader, and with -Dharness.capture=file
+ * what the controller sensed in every step is captured, see ReplayBenchmark. If the JVM was started with a flight
+ * recording (-XX:StartFlightRecording), the mode changes, junctions and walls the controller reports are committed as
+ * events in the Maze category.
+ * A controller created by Controller.newInstance starts the files again.
+ */
+public class StepRecording {
+    private StepTrace trace;
+    private SensorCapture capture;
+    private boolean events = false;
+
+    /**
+     * Opens the files named by the harness.trace and harness.capture system properties, and emits events if a flight
+     * recording has been started.
+     * @return recording, null if there is nothing to record
+     */
+    public static StepRecording fromProperties() {
+        StepRecording recording = new StepRecording();
+        String tracePath = System.getProperty("harness.trace");
+        if (tracePath != null) {
+            try {
+                recording.trace = new StepTrace(tracePath);
+            } catch (IOException e) {
+                System.out.println("Not tracing, cannot create " + tracePath + ": " + e.getMessage());
+            }
+        }
+        String capturePath = System.getProperty("harness.capture");
+        if (capturePath != null) {
+            try {
+                recording.capture = new SensorCapture(capturePath);
+            } catch (IOException e) {
+                System.out.println("Not capturing, cannot create " + capturePath + ": " + e.getMessage());
+            }
+        }
+        recording.events = FlightRecorder.isAvailable() && FlightRecorder.isInitialized();
+        return recording.recordsSteps() || recording.events ? recording : null;
+    }
+
+    /**
+     * @return true if every step has to go through the hooks, so the controller must not decide several at once
+     */
+    public boolean recordsSteps() {
+        return trace != null || capture != null;
+    }
+
+    /**
+     * Called before the controller decides a step.
+     * @param robot
+     */
+    public void beginStep(IRobot robot) {
+        if (capture != null) {
+            try {
+                capture.beginStep(robot);
+            } catch (IOException e) {
+                stopCapture(e);
+            }
+        }
+    }
+
+    /**
+     * Called with the result of every look made while deciding a step.
+     * @param robot
+     * @param direction relative direction looked in
+     * @param result
+     */
+    public void look(IRobot robot, int direction, int result) {
+        if (capture != null) {
+            capture.recordLook(robot, direction, result);
+        }
+    }
+
+    /**
+     * Called once the controller has chosen the heading for a step, before the robot moves, by controllers that do
+     * not trace.
+     * @param robot
+     */
+    public void endStep(IRobot robot) {
+        if (capture != null) {
+            try {
+                capture.endStep(robot);
+            } catch (IOException e) {
+                stopCapture(e);
+            }
+        }
+    }
+
+    /**
+     * Called once the controller has chosen the heading for a step, before the robot moves.
+     * @param robot
+     * @param mode ordinal of the mode the step was decided in
+     * @param exits absolute exit mask of the cell as the controller knows it
+     */
+    public void endStep(IRobot robot, int mode, int exits) {
+        if (trace != null) {
+            try {
+                trace.record(robot.getLocation().x, robot.getLocation().y, robot.getHeading() - IRobot.NORTH, mode, exits);
+            } catch (IOException e) {
+                stopTrace(e);
+            }
+        }
+        endStep(robot);
+    }
+
+    /**
+     * Called when the controller is reset.
+     */
+    public void endRun() {
+        if (trace != null) {
+            try {
+                trace.endRun();
+            } catch (IOException e) {
+                stopTrace(e);
+            }
+        }
+        if (capture != null) {
+            try {
+                capture.endRun();
+            } catch (IOException e) {
+                stopCapture(e);
+            }
+        }
+    }
+
+    /**
+     * @param from name of the mode reported last
+     * @param to
+     * @param x
+     * @param y
+     */
+    public void modeChanged(String from, String to, int x, int y) {
+        if (!events) {
+            return;
+        }
+        ModeChangeEvent event = new ModeChangeEvent();
+        if (event.shouldCommit()) {
+            event.from = from;
+            event.to = to;
+            event.x = x;
+            event.y = y;
+            event.commit();
+        }
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @param arrivalHeading
+     */
+    public void junctionRecorded(int x, int y, int arrivalHeading) {
+        if (!events) {
+            return;
+        }
+        JunctionRecordedEvent event = new JunctionRecordedEvent();
+        if (event.shouldCommit()) {
+            event.x = x;
+            event.y = y;
+            event.arrivalHeading = arrivalHeading;
+            event.commit();
+        }
+    }
+
+    /**
+     * @param x
+     * @param y
+     */
+    public void junctionRevisited(int x, int y) {
+        if (!events) {
+            return;
+        }
+        JunctionRevisitEvent event = new JunctionRevisitEvent();
+        if (event.shouldCommit()) {
+            event.x = x;
+            event.y = y;
+            event.commit();
+        }
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @param exitHeading
+     */
+    public void routeFallback(int x, int y, int exitHeading) {
+        if (!events) {
+            return;
+        }
+        RouteFallbackEvent event = new RouteFallbackEvent();
+        if (event.shouldCommit()) {
+            event.x = x;
+            event.y = y;
+            event.exitHeading = exitHeading;
+            event.commit();
+        }
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @param heading
+     * @param cellsReplanned
+     */
+    public void wallAppeared(int x, int y, int heading, int cellsReplanned) {
+        if (!events) {
+            return;
+        }
+        WallAppearedEvent event = new WallAppearedEvent();
+        if (event.shouldCommit()) {
+            event.x = x;
+            event.y = y;
+            event.heading = heading;
+            event.cellsReplanned = cellsReplanned;
+            event.commit();
+        }
+    }
+
+    /**
+     * Closes the files, leaving what has been recorded.
+     */
+    public void close() {
+        if (trace != null) {
+            try {
+                trace.close();
+            } catch (IOException e) {
+                stopTrace(e);
+            }
+            trace = null;
+        }
+        if (capture != null) {
+            try {
+                capture.close();
+            } catch (IOException e) {
+                stopCapture(e);
+            }
+            capture = null;
+        }
+    }
+
+    /**
+     * Stops tracing after the trace file could not be written, leaving the steps recorded so far.
+     * @param e
+     */
+    private void stopTrace(IOException e) {
+        System.out.println("Tracing stopped: " + e.getMessage());
+        trace = null;
+    }
+
+    /**
+     * Stops capturing sensor readings after the capture file could not be written.
+     * @param e
+     */
+    private void stopCapture(IOException e) {
+        System.out.println("Capture stopped: " + e.getMessage());
+        capture = null;
+    }
+}
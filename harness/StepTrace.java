@@ -0,0 +1,79 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+
+/**
+ * Writes the steps of a controller to a file, one short per step, for TraceReader. See StepRecording.
+ */
+public class StepTrace {
+    // A step is one big endian short: exit mask of the cell in bits 0-3, absolute heading chosen in bits 4-5,
+    // mode in bits 6-7, and the direction moved onto the cell in bits 8-9 if MOVED is set
+    public final static int HEADING_SHIFT = 4;
+    public final static int MODE_SHIFT = 6;
+    public final static int MOVE_SHIFT = 8;
+    public final static int MOVED = 1 << 10;
+
+    // A jump is JUMP followed by the new x and y as ints, written whenever the robot is placed rather than stepped
+    public final static int JUMP = 0x8000;
+
+    public final static int MAGIC = 0x47465452;  // "GFTR"
+    public final static int VERSION = 1;
+
+    private DataOutputStream out;
+    private boolean placed = false;
+    private int lastX;
+    private int lastY;
+
+    public StepTrace(String path) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * Appends a step, preceded by a jump if the robot is not on or next to the cell of the last step.
+     * @param x
+     * @param y
+     * @param heading absolute heading index chosen for the step, 0 is north
+     * @param mode ordinal of the mode the step was decided in
+     * @param exits absolute exit mask of the cell
+     * @throws IOException
+     */
+    public void record(int x, int y, int heading, int mode, int exits) throws IOException {
+        int step = exits | heading << HEADING_SHIFT | (mode & 3) << MODE_SHIFT;
+
+        int dx = x - lastX;
+        int dy = y - lastY;
+        if (placed && Math.abs(dx) + Math.abs(dy) == 1) {
+            step |= MOVED | (dx == 0 ? (dy < 0 ? 0 : 2) : (dx > 0 ? 1 : 3)) << MOVE_SHIFT;
+        } else if (!placed || dx != 0 || dy != 0) {
+            out.writeShort(JUMP);
+            out.writeInt(x);
+            out.writeInt(y);
+        }
+        out.writeShort(step);
+
+        placed = true;
+        lastX = x;
+        lastY = y;
+    }
+
+    /**
+     * The robot is about to be placed back at the start, which is recorded as a jump even if it is next to the
+     * last cell.
+     * @throws IOException
+     */
+    public void endRun() throws IOException {
+        placed = false;
+        out.flush();
+    }
+
+    /**
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        out.close();
+    }
+}
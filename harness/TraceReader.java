@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+interface TraceVisitor {
+    /**
+     * The robot has been placed on a cell rather than stepping onto it, at the start of every run.
+     * @param x
+     * @param y
+     */
+    void jump(int x, int y);
+
+    /**
+     * @param x
+     * @param y
+     * @param heading absolute heading index chosen for the step, 0 is north
+     * @param mode ordinal of the GrandFinale RobotMode the step was decided in
+     * @param exits absolute exit mask of the cell
+     * @param moved false if the robot is on the same cell as the last step
+     */
+    void step(int x, int y, int heading, int mode, int exits, boolean moved);
+}
+
+
+class TraceStatistics implements TraceVisitor {
+    public final static String[] MODE_NAMES = {"EXPLORE", "BACKTRACK", "ROUTE", "MODE3"};
+
+    public long steps = 0;
+    public long runs = 0;
+    public long stalls = 0;
+    public long turns = 0;
+    public long reversals = 0;
+    public long[] modeSteps = new long[4];
+
+    // Steps taken on dead ends, corridors, junctions and crossroads, by number of exits
+    public long[] exitCountSteps = new long[5];
+
+    private int lastHeading = -1;
+
+    public void jump(int x, int y) {
+        runs++;
+        lastHeading = -1;
+    }
+
+    public void step(int x, int y, int heading, int mode, int exits, boolean moved) {
+        steps++;
+        modeSteps[mode]++;
+        exitCountSteps[Integer.bitCount(exits)]++;
+        if (!moved && lastHeading != -1) {
+            stalls++;
+        }
+        if (lastHeading != -1 && heading != lastHeading) {
+            if ((heading - lastHeading + 4) % 4 == 2) {
+                reversals++;
+            } else {
+                turns++;
+            }
+        }
+        lastHeading = heading;
+    }
+
+    public void print() {
+        System.out.println(steps + " steps over " + runs + " runs, " + turns + " turns, " + reversals + " reversals, "
+            + stalls + " steps without moving");
+        for (int i = 0; i < modeSteps.length; i++) {
+            if (modeSteps[i] != 0) {
+                System.out.println(MODE_NAMES[i] + ": " + modeSteps[i] + " steps");
+            }
+        }
+        System.out.println("Steps by exits of the cell: " + exitCountSteps[1] + " dead end, " + exitCountSteps[2]
+            + " corridor, " + exitCountSteps[3] + " junction, " + exitCountSteps[4] + " crossroads");
+    }
+}
+
+
+/**
+ * Reads the step traces StepTrace writes when a controller is run with -Dharness.trace=file.
+ * The file is memory mapped a window at a time, so traces larger than the address space of one buffer are scanned
+ * without copying them onto the heap.
+ */
+public class TraceReader {
+    public final static int HEADING_SHIFT = StepTrace.HEADING_SHIFT;
+    public final static int MODE_SHIFT = StepTrace.MODE_SHIFT;
+    public final static int MOVE_SHIFT = StepTrace.MOVE_SHIFT;
+    public final static int MOVED = StepTrace.MOVED;
+    public final static int JUMP = StepTrace.JUMP;
+    public final static int MAGIC = StepTrace.MAGIC;
+    public final static int VERSION = StepTrace.VERSION;
+    public final static int HEADER_BYTES = 8;
+    public final static int JUMP_BYTES = 10;
+
+    public final static int[] DX = {0, 1, 0, -1};
+    public final static int[] DY = {-1, 0, 1, 0};
+
+    private final static long WINDOW = 1L << 30;
+
+    /**
+     * Replays every record of the trace, in order, through the visitor.
+     * @param path
+     * @param visitor
+     * @throws IOException if the file cannot be read or is not a step trace
+     */
+    public static void read(String path, TraceVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException(path + " is too short to be a step trace");
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, WINDOW));
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(path + " is not a version " + VERSION + " step trace");
+            }
+
+            long base = 0;
+            int x = 0;
+            int y = 0;
+            while (true) {
+                // Slide the window forward when the next record might not fit in it
+                if (buffer.remaining() < JUMP_BYTES && base + buffer.limit() < size) {
+                    base += buffer.position();
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(size - base, WINDOW));
+                }
+                if (buffer.remaining() < 2) {
+                    break;
+                }
+
+                int record = buffer.getShort() & 0xFFFF;
+                if (record == JUMP) {
+                    x = buffer.getInt();
+                    y = buffer.getInt();
+                    visitor.jump(x, y);
+                    continue;
+                }
+
+                boolean moved = (record & MOVED) != 0;
+                if (moved) {
+                    int move = (record >> MOVE_SHIFT) & 3;
+                    x += DX[move];
+                    y += DY[move];
+                }
+                visitor.step(x, y, (record >> HEADING_SHIFT) & 3, (record >> MODE_SHIFT) & 3, record & 0xF, moved);
+            }
+        }
+    }
+
+    /**
+     * Prints statistics of a step trace and how fast it was scanned.
+     * Usage: java TraceReader trace
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java TraceReader trace");
+            return;
+        }
+
+        TraceStatistics statistics = new TraceStatistics();
+        long start = System.nanoTime();
+        read(args[0], statistics);
+        long time = System.nanoTime() - start;
+
+        statistics.print();
+        System.out.println("Scanned in " + time / 1000000 + " ms, "
+            + String.format("%.2f", statistics.steps == 0 ? 0.0 : (double) time / statistics.steps) + " ns per step");
+    }
+}
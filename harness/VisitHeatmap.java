@@ -0,0 +1,159 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * Counts the steps a controller takes from every cell, in one grid per mode it was in once it had decided the step,
+ * to show where it spends its steps.
+ * Counting a step is one array increment, so it can stay on in batch runs: Controller counts the steps of a controller
+ * given a heatmap with setHeatmap, as HeadlessRunner does with -Dharness.heatmap=prefix.
+ * Usage: java VisitHeatmap controllerClass capture outputPrefix
+ * replays a capture (see ReplayBenchmark) and writes outputPrefix.runN.heat plus a PGM image per mode of every run.
+ */
+public class VisitHeatmap {
+    public final static int MAGIC = 0x47464856;  // "GFHV"
+    public final static int VERSION = 1;
+
+    public int width;
+    public int height;
+    public String[] modeNames;
+
+    // Visits of cell (x, y) in mode m are at (m * height + y) * width + x
+    public int[] visits;
+
+    public VisitHeatmap(int width, int height, String[] modeNames) {
+        this.width = width;
+        this.height = height;
+        this.modeNames = modeNames;
+        visits = new int[modeNames.length * width * height];
+    }
+
+    /**
+     * Counts a step. Cells outside the grid are ignored.
+     * @param mode index into modeNames of the mode the step was taken in
+     * @param x
+     * @param y
+     */
+    public void visit(int mode, int x, int y) {
+        if (x >= 0 && y >= 0 && x < width && y < height) {
+            visits[(mode * height + y) * width + x]++;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(visits, 0);
+    }
+
+    /**
+     * @param mode
+     * @return total steps counted in the mode
+     */
+    public long total(int mode) {
+        long total = 0;
+        for (int i = mode * width * height; i < (mode + 1) * width * height; i++) {
+            total += visits[i];
+        }
+        return total;
+    }
+
+    /**
+     * Writes every grid as big endian ints after a header of the magic number, version, width, height and mode names.
+     * @param path
+     * @throws IOException
+     */
+    public void writeBinary(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(modeNames.length);
+            for (String name : modeNames) {
+                out.writeUTF(name);
+            }
+            for (int count : visits) {
+                out.writeInt(count);
+            }
+        }
+    }
+
+    /**
+     * Writes the grid of one mode as a binary greyscale PGM image, one pixel per cell. Unvisited cells are black and
+     * the brightness of the rest grows with the logarithm of their visits, so cells visited once still show up next
+     * to the most visited.
+     * @param path
+     * @param mode
+     * @throws IOException
+     */
+    public void writePgm(String path, int mode) throws IOException {
+        int offset = mode * width * height;
+        int max = 1;
+        for (int i = offset; i < offset + width * height; i++) {
+            max = Math.max(max, visits[i]);
+        }
+
+        byte[] pixels = new byte[width * height];
+        double scale = 191 / Math.log(1 + max);
+        for (int i = 0; i < pixels.length; i++) {
+            int count = visits[offset + i];
+            pixels[i] = (byte) (count == 0 ? 0 : 64 + (int) (scale * Math.log(1 + count)));
+        }
+
+        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(path))) {
+            out.write(("P5\n" + width + " " + height + "\n255\n").getBytes("US-ASCII"));
+            out.write(pixels);
+        }
+    }
+
+    /**
+     * Writes the binary grids and an image of every mode that has visits.
+     * @param prefix
+     * @throws IOException
+     */
+    public void export(String prefix) throws IOException {
+        writeBinary(prefix + ".heat");
+        for (int mode = 0; mode < modeNames.length; mode++) {
+            if (total(mode) != 0) {
+                writePgm(prefix + "." + modeNames[mode].toLowerCase() + ".pgm", mode);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Throwable {
+        if (args.length < 3) {
+            System.out.println("Usage: java VisitHeatmap controllerClass capture outputPrefix");
+            return;
+        }
+
+        Controller controller = Controller.load(args[0]);
+        SensorStream stream = SensorStream.load(args[1]);
+        ReplayRobot robot = new ReplayRobot(stream);
+        VisitHeatmap heatmap = new VisitHeatmap(robot.getWidth(), robot.getHeight(), controller.getModeNames());
+        controller.setHeatmap(heatmap);
+
+        for (int run = 0; run < stream.runCount; run++) {
+            if (run > 0) {
+                controller.reset();
+            }
+            robot.startRun(run);
+            long limit = 10L * (stream.runEnd(run) - stream.runStart[run]);
+            for (long step = 0; !robot.atTarget() && step < limit; step++) {
+                controller.controlRobot(robot);
+                robot.advance();
+            }
+
+            String prefix = args[2] + ".run" + stream.runNumber[run];
+            heatmap.export(prefix);
+            StringBuilder line = new StringBuilder("Run " + stream.runNumber[run] + ":");
+            for (int mode = 0; mode < heatmap.modeNames.length; mode++) {
+                line.append(" ").append(heatmap.modeNames[mode]).append(" ").append(heatmap.total(mode));
+            }
+            System.out.println(line + " steps, written to " + prefix + ".*");
+            heatmap.clear();
+        }
+        controller.reset();
+    }
+}
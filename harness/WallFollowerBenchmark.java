@@ -0,0 +1,80 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+
+
+/**
+ * Compares the steps controllers take through the same generated mazes against the heap they keep, to see when the
+ * constant memory of WallFollower is worth the extra steps over GrandFinale. The heap a controller keeps is measured
+ * after its last run in a maze, as the heap in use with the controller alive less the heap in use once it has been
+ * replaced, each after a full collection.
+ * Usage: java WallFollowerBenchmark [mazes] [size] [runs] [loopFraction] [controllerClass...]
+ * compares WallFollower and GrandFinale unless controllers are given. Controllers that share helper class names cannot
+ * be compiled together (see Controller), but WallFollower and GrandFinale can, e.g.
+ * javac -d out harness/uk/ac/warwick/dcs/maze/logic/IRobot.java harness/*.java coursework2/GrandFinale.java coursework2/WallFollower.java
+ */
+public class WallFollowerBenchmark {
+    private final static MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    /**
+     * @return heap in use after a full collection
+     */
+    private static long usedHeap() {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    public static void main(String[] args) throws Throwable {
+        int mazes = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 101;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        double loopFraction = args.length > 3 ? Double.parseDouble(args[3]) : 0.05;
+        String[] names = args.length > 4 ? Arrays.copyOfRange(args, 4, args.length) : new String[] {"WallFollower", "GrandFinale"};
+
+        HeadlessMaze[] corpus = new HeadlessMaze[mazes];
+        for (int i = 0; i < mazes; i++) {
+            corpus[i] = HeadlessMaze.generate(size, size, loopFraction, i);
+        }
+
+        // Silence what controllers print every run
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        out.println(mazes + " mazes of " + size + "x" + size + ", " + runs + " runs each, loop fraction " + loopFraction);
+        for (String name : names) {
+            Controller controller = Controller.load(name);
+            HeadlessRunner runner = new HeadlessRunner(controller);
+            long limit = 100L * size * size;
+            long failed = 0;
+            long kept = 0;
+            long mostKept = 0;
+
+            // Settle the heap, which changes over the first collections after loading a controller
+            for (int i = 0; i < 3; i++) {
+                usedHeap();
+            }
+
+            for (HeadlessMaze maze : corpus) {
+                long[] runSteps = runner.run(maze, runs, false);
+                for (long steps : runSteps) {
+                    if (steps >= limit) {
+                        failed++;
+                    }
+                }
+
+                long withController = usedHeap();
+                controller.newInstance();
+                long bytes = Math.max(0, withController - usedHeap());
+                kept += bytes;
+                mostKept = Math.max(mostKept, bytes);
+            }
+
+            out.println(String.format("%-14s first runs %7d steps, later runs %7d steps, %d runs failed, keeps %8d bytes (most %d)",
+                name, runner.steps[0] / mazes, runner.steps[1] / Math.max(1, (long) mazes * (runs - 1)), failed,
+                kept / mazes, mostKept));
+        }
+        System.setOut(out);
+    }
+}
@@ -0,0 +1,346 @@
+import java.util.Arrays;
+
+
+/**
+ * Hierarchical route planner over a GrandFinale JunctionGraph, measured against the flat JunctionGraph.planRoute by
+ * PlannerBenchmark. Nodes are grouped into square regions, the distances between the entrances of each region are
+ * precomputed, and a query searches the graph of entrances and then refines the path inside the regions it crosses.
+ * Edges cost their length in cells only, so the turn costs of a CostModel are not taken into account.
+ */
+public class HierarchicalPlanner {
+    private JunctionGraph graph;
+    private int regionSize;
+    private int regionsPerRow;
+    private int[] nodeRegion;
+
+    // Abstract graph over entrance nodes, in the same compressed sparse row layout as JunctionGraph
+    private int[] entranceOf;
+    private int[] entranceNode;
+    private int[] regionEntrances;
+    private int[] regionOffsets;
+    private int[] offsets;
+    private int[] edgeTarget;
+    private long[] edgeCost;
+
+    // Scratch space for searches, entries are only valid where stamp matches the current search
+    private int[] stamp;
+    private int search = 0;
+    private long[] localCost;
+    private int[] localPrev;
+    private CostHeap heap;
+
+    public HierarchicalPlanner(JunctionGraph graph, int regionSize) {
+        this.graph = graph;
+        this.regionSize = regionSize;
+        build();
+    }
+
+    /**
+     * Partitions the nodes into regions, finds the entrances and precomputes the distances between entrances of the same region.
+     */
+    private void build() {
+        int n = graph.nodeCount;
+        regionsPerRow = (graph.width + regionSize - 1) / regionSize;
+        nodeRegion = new int[n];
+        for (int i = 0; i < n; i++) {
+            nodeRegion[i] = regionOf(graph.nodeCell[i]);
+        }
+
+        stamp = new int[n];
+        localCost = new long[n];
+        localPrev = new int[n];
+        heap = new CostHeap(16);
+
+        // An entrance has an edge leading into another region
+        entranceOf = new int[n];
+        Arrays.fill(entranceOf, -1);
+        int entrances = 0;
+        for (int i = 0; i < n; i++) {
+            for (int e = graph.offsets[i]; e < graph.offsets[i + 1]; e++) {
+                if (nodeRegion[graph.edgeTarget[e]] != nodeRegion[i]) {
+                    entranceOf[i] = entrances++;
+                    break;
+                }
+            }
+        }
+        entranceNode = new int[entrances];
+        for (int i = 0; i < n; i++) {
+            if (entranceOf[i] != -1) {
+                entranceNode[entranceOf[i]] = i;
+            }
+        }
+
+        // Group entrances by region
+        int regions = 0;
+        for (int i = 0; i < n; i++) {
+            regions = Math.max(regions, nodeRegion[i] + 1);
+        }
+        regionOffsets = new int[regions + 1];
+        for (int a = 0; a < entrances; a++) {
+            regionOffsets[nodeRegion[entranceNode[a]] + 1]++;
+        }
+        for (int r = 0; r < regions; r++) {
+            regionOffsets[r + 1] += regionOffsets[r];
+        }
+        regionEntrances = new int[entrances];
+        int[] fill = Arrays.copyOf(regionOffsets, regions);
+        for (int a = 0; a < entrances; a++) {
+            regionEntrances[fill[nodeRegion[entranceNode[a]]]++] = a;
+        }
+
+        // Abstract edges: crossing edges plus a shortcut to every entrance reachable inside the region
+        offsets = new int[entrances + 1];
+        int[] targets = new int[Math.max(16, entrances * 4)];
+        long[] costs = new long[targets.length];
+        int edges = 0;
+        for (int a = 0; a < entrances; a++) {
+            offsets[a] = edges;
+            int node = entranceNode[a];
+            int region = nodeRegion[node];
+
+            localSearch(node, -1);
+            for (int k = regionOffsets[region]; k < regionOffsets[region + 1]; k++) {
+                int b = regionEntrances[k];
+                int other = entranceNode[b];
+                if (b == a || stamp[other] != search || localCost[other] == Long.MAX_VALUE) {
+                    continue;
+                }
+                if (edges == targets.length) {
+                    targets = Arrays.copyOf(targets, edges * 2);
+                    costs = Arrays.copyOf(costs, edges * 2);
+                }
+                targets[edges] = b;
+                costs[edges] = localCost[other];
+                edges++;
+            }
+
+            for (int e = graph.offsets[node]; e < graph.offsets[node + 1]; e++) {
+                int next = graph.edgeTarget[e];
+                if (nodeRegion[next] == region) {
+                    continue;
+                }
+                if (edges == targets.length) {
+                    targets = Arrays.copyOf(targets, edges * 2);
+                    costs = Arrays.copyOf(costs, edges * 2);
+                }
+                targets[edges] = entranceOf[next];
+                costs[edges] = graph.edgeLength[e];
+                edges++;
+            }
+        }
+        offsets[entrances] = edges;
+        edgeTarget = Arrays.copyOf(targets, edges);
+        edgeCost = Arrays.copyOf(costs, edges);
+    }
+
+    /**
+     * @param cell
+     * @return region id of the cell
+     */
+    private int regionOf(int cell) {
+        int x = cell % graph.width;
+        int y = cell / graph.width;
+        return (y / regionSize) * regionsPerRow + x / regionSize;
+    }
+
+    /**
+     * Dijkstra restricted to the region of the source node. Results are left in localCost and localPrev.
+     * @param source
+     * @param target node to stop at, -1 to search the whole region
+     */
+    private void localSearch(int source, int target) {
+        search++;
+        int region = nodeRegion[source];
+
+        stamp[source] = search;
+        localCost[source] = 0;
+        localPrev[source] = -1;
+        heap.clear();
+        heap.push(0, source);
+
+        while (!heap.isEmpty()) {
+            long cost = heap.topCost();
+            int node = heap.pop();
+            if (cost != localCost[node]) {
+                continue;
+            }
+            if (node == target) {
+                return;
+            }
+
+            for (int e = graph.offsets[node]; e < graph.offsets[node + 1]; e++) {
+                int next = graph.edgeTarget[e];
+                if (nodeRegion[next] != region) {
+                    continue;
+                }
+
+                long nextCost = cost + graph.edgeLength[e];
+                if (stamp[next] != search || nextCost < localCost[next]) {
+                    stamp[next] = search;
+                    localCost[next] = nextCost;
+                    localPrev[next] = e;
+                    heap.push(nextCost, next);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds a route between two nodes by searching the abstract graph and refining each shortcut inside its region.
+     * @param source
+     * @param target
+     * @return node ids along the route from source to target, null if not connected
+     */
+    public int[] findRoute(int source, int target) {
+        int entrances = entranceNode.length;
+        int sourceRegion = nodeRegion[source];
+        int targetRegion = nodeRegion[target];
+
+        // Best route that stays inside a shared region
+        long best = Long.MAX_VALUE;
+        int bestEntrance = -1;
+        if (sourceRegion == targetRegion) {
+            localSearch(source, target);
+            if (stamp[target] == search) {
+                best = localCost[target];
+            }
+        }
+
+        // Costs from the target to the entrances of its region
+        localSearch(target, -1);
+        long[] toTarget = new long[regionOffsets[targetRegion + 1] - regionOffsets[targetRegion]];
+        for (int k = 0; k < toTarget.length; k++) {
+            int node = entranceNode[regionEntrances[regionOffsets[targetRegion] + k]];
+            toTarget[k] = stamp[node] == search ? localCost[node] : Long.MAX_VALUE;
+        }
+
+        // Seed the abstract search with the entrances of the source region
+        localSearch(source, -1);
+        long[] cost = new long[entrances];
+        int[] prev = new int[entrances];
+        Arrays.fill(cost, Long.MAX_VALUE);
+        Arrays.fill(prev, -1);
+        CostHeap queue = new CostHeap(16);
+        for (int k = regionOffsets[sourceRegion]; k < regionOffsets[sourceRegion + 1]; k++) {
+            int a = regionEntrances[k];
+            int node = entranceNode[a];
+            if (stamp[node] == search) {
+                cost[a] = localCost[node];
+                queue.push(cost[a], a);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            long c = queue.topCost();
+            int a = queue.pop();
+            if (c != cost[a]) {
+                continue;
+            }
+            if (c >= best) {
+                break;
+            }
+
+            // Leaving from an entrance of the target region
+            int node = entranceNode[a];
+            if (nodeRegion[node] == targetRegion) {
+                int k = Arrays.binarySearch(regionEntrances, regionOffsets[targetRegion], regionOffsets[targetRegion + 1], a);
+                if (k >= 0 && toTarget[k - regionOffsets[targetRegion]] != Long.MAX_VALUE && c + toTarget[k - regionOffsets[targetRegion]] < best) {
+                    best = c + toTarget[k - regionOffsets[targetRegion]];
+                    bestEntrance = a;
+                }
+            }
+
+            for (int e = offsets[a]; e < offsets[a + 1]; e++) {
+                int b = edgeTarget[e];
+                if (c + edgeCost[e] < cost[b]) {
+                    cost[b] = c + edgeCost[e];
+                    prev[b] = a;
+                    queue.push(cost[b], b);
+                }
+            }
+        }
+
+        if (best == Long.MAX_VALUE) {
+            return null;
+        }
+        if (bestEntrance == -1) {
+            return refine(source, target);
+        }
+
+        // Chain of entrances from the source region to the target region
+        int length = 0;
+        int[] chain = new int[16];
+        for (int a = bestEntrance; a != -1; a = prev[a]) {
+            if (length == chain.length) {
+                chain = Arrays.copyOf(chain, length * 2);
+            }
+            chain[length++] = entranceNode[a];
+        }
+
+        // Refine every hop into junction nodes
+        int[] route = new int[] {source};
+        int from = source;
+        for (int i = length - 1; i >= -1; i--) {
+            int to = i >= 0 ? chain[i] : target;
+            if (to == from) {
+                continue;
+            }
+            int[] hop = nodeRegion[from] == nodeRegion[to] ? refine(from, to) : new int[] {from, to};
+            int old = route.length;
+            route = Arrays.copyOf(route, old + hop.length - 1);
+            System.arraycopy(hop, 1, route, old, hop.length - 1);
+            from = to;
+        }
+        return route;
+    }
+
+    /**
+     * Finds the route between two nodes of the same region.
+     * @param source
+     * @param target
+     * @return node ids along the route
+     */
+    private int[] refine(int source, int target) {
+        localSearch(source, target);
+
+        int length = 1;
+        for (int node = target; node != source; node = graph.edgeSource(localPrev[node])) {
+            length++;
+        }
+        int[] route = new int[length];
+        int node = target;
+        for (int i = length - 1; i >= 0; i--) {
+            route[i] = node;
+            if (node != source) {
+                node = graph.edgeSource(localPrev[node]);
+            }
+        }
+        return route;
+    }
+
+    /**
+     * Adds up the corridor lengths along a route.
+     * @param route
+     * @return total length
+     */
+    public long routeLength(int[] route) {
+        long length = 0;
+        for (int i = 0; i + 1 < route.length; i++) {
+            long shortest = Long.MAX_VALUE;
+            for (int e = graph.offsets[route[i]]; e < graph.offsets[route[i] + 1]; e++) {
+                if (graph.edgeTarget[e] == route[i + 1]) {
+                    shortest = Math.min(shortest, graph.edgeLength[e]);
+                }
+            }
+            length += shortest;
+        }
+        return length;
+    }
+
+    /**
+     * @return number of entrance nodes in the abstract graph
+     */
+    public int entranceCount() {
+        return entranceNode.length;
+    }
+}
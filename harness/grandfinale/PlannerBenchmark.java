@@ -0,0 +1,107 @@
+import java.util.Random;
+
+
+/**
+ * Benchmarks of the GrandFinale route structures on generated mazes, compiled with GrandFinale for its helper classes:
+ * javac -d out harness/uk/ac/warwick/dcs/maze/logic/IRobot.java harness/*.java harness/grandfinale/*.java coursework2/GrandFinale.java
+ */
+public class PlannerBenchmark {
+
+    /**
+     * Generates a maze with HeadlessMaze.generate and records every open cell of it in a MazeMap, as if fully
+     * explored, with the start at (1, 1) and the target in the opposite corner.
+     * @param size odd number of cells including the outer wall
+     * @param loopFraction fraction of cells to open after carving
+     * @param seed
+     * @return MazeMap with every passage cell known
+     */
+    public static MazeMap knownMaze(int size, double loopFraction, long seed) {
+        HeadlessMaze maze = HeadlessMaze.generate(size, size, loopFraction, seed);
+        MazeMap map = new MazeMap();
+        for (int y = 1; y < size - 1; y++) {
+            for (int x = 1; x < size - 1; x++) {
+                if (!maze.isOpen(x, y)) {
+                    continue;
+                }
+                int exits = 0;
+                for (int i = 0; i < 4; i++) {
+                    if (maze.isOpen(x + MazeMap.DX[i], y + MazeMap.DY[i])) {
+                        exits |= 1 << i;
+                    }
+                }
+                map.recordCell(x, y, exits);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Compares route latency and length of the hierarchical planner against flat Dijkstra on the same junction graph.
+     * Usage: java PlannerBenchmark [mazeSize] [regionSize] [queries] [loopFraction]
+     * @param args
+     */
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) | 1 : 2001;
+        int regionSize = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        double loops = args.length > 3 ? Double.parseDouble(args[3]) : 0.01;
+
+        MazeMap map = knownMaze(size, loops, 118);
+        long buildStart = System.nanoTime();
+        JunctionGraph graph = JunctionGraph.freeze(map, 1, 1, size - 2, size - 2);
+        long freezeTime = System.nanoTime() - buildStart;
+
+        buildStart = System.nanoTime();
+        HierarchicalPlanner planner = new HierarchicalPlanner(graph, regionSize);
+        long plannerTime = System.nanoTime() - buildStart;
+
+        System.out.println("maze " + size + "x" + size + ", " + graph.nodeCount + " junctions, " + graph.edgeCount + " edges, "
+                + planner.entranceCount() + " entrances");
+        System.out.println("freeze " + freezeTime / 1000000 + " ms, hierarchy " + plannerTime / 1000000 + " ms");
+
+        Random random = new Random(1);
+        int[] sources = new int[queries];
+        int[] targets = new int[queries];
+        for (int i = 0; i < queries; i++) {
+            sources[i] = random.nextInt(graph.nodeCount);
+            targets[i] = random.nextInt(graph.nodeCount);
+        }
+
+        // Warm up both planners before timing
+        for (int i = 0; i < Math.min(queries, 20); i++) {
+            graph.shortestPaths(sources[i], targets[i]);
+            planner.findRoute(sources[i], targets[i]);
+        }
+
+        long flatTime = 0;
+        long hierarchicalTime = 0;
+        long flatLength = 0;
+        long hierarchicalLength = 0;
+        double worstRatio = 1;
+        for (int i = 0; i < queries; i++) {
+            long t0 = System.nanoTime();
+            graph.shortestPaths(sources[i], targets[i]);
+            long t1 = System.nanoTime();
+            int[] route = planner.findRoute(sources[i], targets[i]);
+            long t2 = System.nanoTime();
+
+            flatTime += t1 - t0;
+            hierarchicalTime += t2 - t1;
+            if (route == null || graph.pathCost[targets[i]] == Long.MAX_VALUE) {
+                continue;
+            }
+
+            long optimal = graph.pathCost[targets[i]];
+            long length = planner.routeLength(route);
+            flatLength += optimal;
+            hierarchicalLength += length;
+            if (optimal > 0) {
+                worstRatio = Math.max(worstRatio, (double) length / optimal);
+            }
+        }
+
+        System.out.println("flat dijkstra  " + flatTime / queries / 1000 + " us/query, total length " + flatLength);
+        System.out.println("hierarchical   " + hierarchicalTime / queries / 1000 + " us/query, total length " + hierarchicalLength);
+        System.out.printf("mean length ratio %.4f, worst %.4f%n", (double) hierarchicalLength / Math.max(1, flatLength), worstRatio);
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Phaser;
+
+
+/**
+ * Compiled with GrandFinale for SharedJunctionMap, see PlannerBenchmark.
+ */
+public class SharedMapBenchmark {
+    private final static int STEPS_PER_ROUND = 64;
+
+    /**
+     * Runs several GrandFinale controllers on their own threads through the first run of a generated maze, each
+     * with its own robot, splitting the junctions through one SharedJunctionMap handed to them with setSharedMap.
+     * Robots move in rounds of STEPS_PER_ROUND steps so they advance at the same speed however the threads are
+     * scheduled, and each stops at the target.
+     * Reports wall time, the steps of the first robot to reach the target, the most steps taken by any robot and
+     * the total steps for 1 to 32 robots.
+     * Usage: java SharedMapBenchmark [mazeSize] [loopFraction] [controllerClass]
+     * @param args
+     * @throws Throwable anything the controllers throw
+     */
+    public static void main(String[] args) throws Throwable {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) | 1 : 1001;
+        double loops = args.length > 1 ? Double.parseDouble(args[1]) : 0.01;
+        String name = args.length > 2 ? args[2] : "GrandFinale";
+        HeadlessMaze maze = HeadlessMaze.generate(size, size, loops, 118);
+        if (!Controller.load(name).canShareMap()) {
+            System.out.println(name + " has no setSharedMap method");
+            return;
+        }
+
+        // Silence what controllers print every run
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        out.println("maze " + size + "x" + size + ", " + Runtime.getRuntime().availableProcessors() + " cpus");
+        for (int robots = 1; robots <= 32; robots *= 2) {
+            // Warm up once, then time
+            run(name, maze, robots);
+            long t0 = System.nanoTime();
+            long[] steps = run(name, maze, robots);
+            long elapsed = System.nanoTime() - t0;
+
+            long total = 0;
+            long first = Long.MAX_VALUE;
+            long longest = 0;
+            for (long s : steps) {
+                total += s;
+                first = Math.min(first, s);
+                longest = Math.max(longest, s);
+            }
+            out.println(robots + " robots: " + elapsed / 1000000 + " ms, first at the target after " + first
+                + " steps, longest " + longest + " steps, total " + total + " steps");
+        }
+        System.setOut(out);
+    }
+
+    /**
+     * @param name controller class
+     * @param maze
+     * @param robots
+     * @return steps of every robot, the step limit for robots that did not reach the target
+     * @throws Throwable anything the controllers throw
+     */
+    private static long[] run(String name, HeadlessMaze maze, int robots) throws Throwable {
+        SharedJunctionMap shared = new SharedJunctionMap(maze.width * maze.height / 2);
+        long limit = 100L * maze.width * maze.height;
+        Phaser rounds = new Phaser(robots);
+        HeadlessRobot[] bodies = new HeadlessRobot[robots];
+        Thread[] threads = new Thread[robots];
+        Throwable[] failure = new Throwable[1];
+
+        for (int r = 0; r < robots; r++) {
+            Controller controller = Controller.load(name);
+            controller.setSharedMap(shared);
+            HeadlessRobot robot = new HeadlessRobot(maze);
+            bodies[r] = robot;
+            threads[r] = new Thread(() -> {
+                try {
+                    while (!robot.atTarget() && robot.getSteps() < limit) {
+                        for (int n = 0; n < STEPS_PER_ROUND && !robot.atTarget() && robot.getSteps() < limit; n++) {
+                            controller.controlRobot(robot);
+                            robot.advance();
+                        }
+                        rounds.arriveAndAwaitAdvance();
+                    }
+                } catch (Throwable e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                } finally {
+                    rounds.arriveAndDeregister();
+                }
+            });
+            threads[r].start();
+        }
+
+        long[] steps = new long[robots];
+        for (int r = 0; r < robots; r++) {
+            threads[r].join();
+            steps[r] = bodies[r].getSteps();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return steps;
+    }
+}
@@ -0,0 +1,57 @@
+package uk.ac.warwick.dcs.maze.logic;
+
+import java.awt.Point;
+
+/**
+ * Stand-in for the robot interface of the maze environment, covering what the controllers use, so controllers can be
+ * compiled and driven by the harness without the environment jar. The constants match the environment.
+ */
+public interface IRobot {
+    // Absolute headings
+    public final static int NORTH = 1000;
+    public final static int EAST = 1001;
+    public final static int SOUTH = 1002;
+    public final static int WEST = 1003;
+
+    // Directions relative to the heading
+    public final static int AHEAD = 2000;
+    public final static int RIGHT = 2001;
+    public final static int BEHIND = 2002;
+    public final static int LEFT = 2003;
+    public final static int CENTRE = 2004;
+
+    // What look finds
+    public final static int WALL = 3000;
+    public final static int PASSAGE = 3001;
+    public final static int BEENBEFORE = 3002;
+
+    void advance();
+
+    /**
+     * @param direction relative direction
+     * @return WALL, PASSAGE or BEENBEFORE
+     */
+    int look(int direction);
+
+    int getHeading();
+
+    void setHeading(int heading);
+
+    /**
+     * Turns to face a relative direction.
+     * @param direction
+     */
+    void face(int direction);
+
+    Point getLocation();
+
+    Point getTargetLocation();
+
+    int getRuns();
+
+    int getSteps();
+
+    int getCollisions();
+
+    void reset();
+}